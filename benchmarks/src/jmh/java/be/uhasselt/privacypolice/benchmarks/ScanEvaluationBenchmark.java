@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package be.uhasselt.privacypolice.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import be.uhasselt.privacypolice.policy.AccessPoint;
+import be.uhasselt.privacypolice.policy.ConfiguredNetwork;
+import be.uhasselt.privacypolice.policy.LongHashSet;
+import be.uhasselt.privacypolice.policy.PolicyDecision;
+import be.uhasselt.privacypolice.policy.PolicyEngine;
+import be.uhasselt.privacypolice.policy.PolicySettings;
+import be.uhasselt.privacypolice.policy.ScanFingerprint;
+import be.uhasselt.privacypolice.policy.ScanIndex;
+import be.uhasselt.privacypolice.policy.TrustIndex;
+
+/**
+ * Measures the work done for every scan: fingerprinting the results, indexing them, and deciding
+ * on every configured network. Half of the access points in range advertise one of the configured
+ * networks, the other half advertise networks the user never saved (as in a dense venue).
+ * Run with the gc profiler (enabled in build.gradle) to see the allocation rate per evaluation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ScanEvaluationBenchmark {
+    /**
+     * Which kind of access points advertise the configured networks
+     */
+    public enum Mix {
+        ALLOWED, BLOCKED, UNKNOWN,
+        // 80% allowed, 10% blocked, 10% unknown
+        MIXED
+    }
+
+    @Param({"1", "50", "500"})
+    public int networks;
+
+    @Param({"1", "200", "2000"})
+    public int accessPoints;
+
+    // Total number of remembered BSSIDs, spread evenly over the configured networks (half of them
+    // allowed, half of them blocked)
+    @Param({"0", "1000", "100000"})
+    public int trustedBSSIDs;
+
+    @Param({"ALLOWED", "BLOCKED", "UNKNOWN", "MIXED"})
+    public Mix mix;
+
+    private PolicyEngine policyEngine;
+    private PolicySettings settings;
+    private List<ConfiguredNetwork> configuredNetworks;
+    private List<AccessPoint> scanResults;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        TrustIndex trustIndex = new TrustIndex();
+        configuredNetworks = new ArrayList<>(networks);
+        long[][] allowed = new long[networks][];
+        long[][] blocked = new long[networks][];
+        for (int network = 0; network < networks; network++) {
+            String SSID = "network-" + network;
+            configuredNetworks.add(new ConfiguredNetwork(network, SSID, false, true));
+            // Every network gets its share of the trust list
+            int share = trustedBSSIDs / networks + (network < trustedBSSIDs % networks ? 1 : 0);
+            LongHashSet allowedBSSIDs = new LongHashSet();
+            LongHashSet blockedBSSIDs = new LongHashSet();
+            for (int i = 0; i < share; i++)
+                (i % 2 == 0 ? allowedBSSIDs : blockedBSSIDs).add(randomBSSID(random));
+            allowed[network] = allowedBSSIDs.toArray();
+            blocked[network] = blockedBSSIDs.toArray();
+            trustIndex.put(SSID, true, allowedBSSIDs);
+            trustIndex.put(SSID, false, blockedBSSIDs);
+        }
+
+        scanResults = new ArrayList<>(accessPoints);
+        for (int i = 0; i < accessPoints; i++) {
+            int level = -30 - random.nextInt(60);
+            if (i % 2 == 0) {
+                int network = (i / 2) % networks;
+                long BSSID = pickBSSID(random, allowed[network], blocked[network]);
+                scanResults.add(new AccessPoint("network-" + network, BSSID, level, "[WPA2-PSK-CCMP][ESS]"));
+            } else {
+                scanResults.add(new AccessPoint("venue-" + i, randomBSSID(random), level, "[ESS]"));
+            }
+        }
+
+        policyEngine = new PolicyEngine(trustIndex);
+        settings = new PolicySettings(true, true, true);
+    }
+
+    /**
+     * Pick the BSSID of an access point advertising a configured network, according to the mix.
+     * Falls back to an unknown BSSID when the network has no BSSIDs of the requested kind.
+     */
+    private long pickBSSID(Random random, long[] allowed, long[] blocked) {
+        Mix kind = mix;
+        if (kind == Mix.MIXED) {
+            int roll = random.nextInt(10);
+            kind = roll < 8 ? Mix.ALLOWED : (roll < 9 ? Mix.BLOCKED : Mix.UNKNOWN);
+        }
+        if (kind == Mix.ALLOWED && allowed.length > 0)
+            return allowed[random.nextInt(allowed.length)];
+        if (kind == Mix.BLOCKED && blocked.length > 0)
+            return blocked[random.nextInt(blocked.length)];
+        return randomBSSID(random);
+    }
+
+    static long randomBSSID(Random random) {
+        return random.nextLong() & 0xffffffffffffL;
+    }
+
+    /**
+     * Everything that happens for a scan that changed since the previous one
+     */
+    @Benchmark
+    public PolicyDecision evaluateScan() {
+        ScanIndex scanIndex = new ScanIndex(scanResults);
+        return policyEngine.evaluate(settings, configuredNetworks, scanIndex);
+    }
+
+    /**
+     * The only work done for a scan that did not change since the previous one
+     */
+    @Benchmark
+    public long fingerprintScan() {
+        return ScanFingerprint.of(scanResults);
+    }
+}
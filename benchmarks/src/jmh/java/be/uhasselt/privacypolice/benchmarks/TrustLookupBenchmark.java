@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package be.uhasselt.privacypolice.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import be.uhasselt.privacypolice.policy.LongHashSet;
+import be.uhasselt.privacypolice.policy.TrustIndex;
+
+/**
+ * Microbenchmarks for the trust list lookups: the per-access point checks done for every scan,
+ * and the list queries behind the hotspot manager screens.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TrustLookupBenchmark {
+    // Number of queries prepared up front, so lookups don't always hit the same entry
+    private static final int QUERIES = 1024;
+
+    @Param({"10", "1000"})
+    public int SSIDs;
+
+    // Allowed BSSIDs per SSID (each SSID gets as many blocked BSSIDs)
+    @Param({"1", "10", "100"})
+    public int BSSIDsPerSSID;
+
+    private TrustIndex trustIndex;
+    private final String[] querySSIDs = new String[QUERIES];
+    private final long[] knownBSSIDs = new long[QUERIES];
+    private final long[] unknownBSSIDs = new long[QUERIES];
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        trustIndex = new TrustIndex();
+        long[][] allowed = new long[SSIDs][];
+        for (int network = 0; network < SSIDs; network++) {
+            LongHashSet allowedBSSIDs = new LongHashSet();
+            LongHashSet blockedBSSIDs = new LongHashSet();
+            for (int i = 0; i < BSSIDsPerSSID; i++) {
+                allowedBSSIDs.add(ScanEvaluationBenchmark.randomBSSID(random));
+                blockedBSSIDs.add(ScanEvaluationBenchmark.randomBSSID(random));
+            }
+            allowed[network] = allowedBSSIDs.toArray();
+            trustIndex.put("network-" + network, true, allowedBSSIDs);
+            trustIndex.put("network-" + network, false, blockedBSSIDs);
+        }
+        for (int i = 0; i < QUERIES; i++) {
+            int network = random.nextInt(SSIDs);
+            // Use new String objects, like the SSIDs of fresh scan results
+            querySSIDs[i] = new String("network-" + network);
+            knownBSSIDs[i] = allowed[network][random.nextInt(allowed[network].length)];
+            unknownBSSIDs[i] = ScanEvaluationBenchmark.randomBSSID(random);
+        }
+    }
+
+    private int nextQuery() {
+        next = (next + 1) & (QUERIES - 1);
+        return next;
+    }
+
+    @Benchmark
+    public boolean isAllowedHit() {
+        int query = nextQuery();
+        return trustIndex.isAllowed(querySSIDs[query], knownBSSIDs[query]);
+    }
+
+    @Benchmark
+    public boolean isAllowedMiss() {
+        int query = nextQuery();
+        return trustIndex.isAllowed(querySSIDs[query], unknownBSSIDs[query]);
+    }
+
+    @Benchmark
+    public boolean isBlockedMiss() {
+        int query = nextQuery();
+        return trustIndex.isBlocked(querySSIDs[query], unknownBSSIDs[query]);
+    }
+
+    @Benchmark
+    public long[] getAllowedBSSIDs() {
+        return trustIndex.getAllowedBSSIDs(querySSIDs[nextQuery()]);
+    }
+
+    @Benchmark
+    public long[] getBlockedBSSIDs() {
+        return trustIndex.getBlockedBSSIDs(querySSIDs[nextQuery()]);
+    }
+
+    @Benchmark
+    public Set<String> getNonemptySSIDs() {
+        return trustIndex.getNonemptySSIDs();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package be.uhasselt.privacypolice.policy;
+
+/**
+ * Converts MAC addresses between their textual form ("aa:bb:cc:dd:ee:ff", as used by Android's
+ * ScanResult) and a compact 48-bit representation stored in a long.
+ */
+
+public final class BSSIDCodec {
+    // Returned when a string could not be parsed. Never a valid 48-bit MAC address.
+    public static final long INVALID = -1;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private BSSIDCodec() {
+    }
+
+    /**
+     * Parse a MAC address of the form "aa:bb:cc:dd:ee:ff" (case insensitive)
+     * @param BSSID the MAC address as a string
+     * @return the MAC address in the lower 48 bits of a long, or INVALID if it could not be parsed
+     */
+    public static long parse(String BSSID) {
+        if (BSSID == null || BSSID.length() != 17)
+            return INVALID;
+        long result = 0;
+        for (int i = 0; i < 17; i++) {
+            char c = BSSID.charAt(i);
+            if (i % 3 == 2) {
+                if (c != ':')
+                    return INVALID;
+                continue;
+            }
+            int digit = Character.digit(c, 16);
+            if (digit < 0)
+                return INVALID;
+            result = (result << 4) | digit;
+        }
+        return result;
+    }
+
+    /**
+     * Format a 48-bit MAC address in the same way Android does ("aa:bb:cc:dd:ee:ff")
+     * @param BSSID the MAC address, as returned by parse()
+     */
+    public static String format(long BSSID) {
+        char[] result = new char[17];
+        for (int octet = 0; octet < 6; octet++) {
+            int value = (int) (BSSID >>> (8 * (5 - octet))) & 0xff;
+            result[octet * 3] = HEX_DIGITS[value >>> 4];
+            result[octet * 3 + 1] = HEX_DIGITS[value & 0xf];
+            if (octet < 5)
+                result[octet * 3 + 2] = ':';
+        }
+        return new String(result);
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package be.uhasselt.privacypolice.policy;
+
+/**
+ * A network that was configured (saved) by the user
+ */
+public class ConfiguredNetwork {
+    public final int networkId;
+    // The SSID in the same form as in a scan result (without quotes), or null if it is unknown
+    public final String SSID;
+    public final boolean hiddenSSID;
+    // Whether the network is currently enabled on the device
+    public final boolean enabled;
+
+    public ConfiguredNetwork(int networkId, String SSID, boolean hiddenSSID, boolean enabled) {
+        this.networkId = networkId;
+        this.SSID = SSID;
+        this.hiddenSSID = hiddenSSID;
+        this.enabled = enabled;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package be.uhasselt.privacypolice.policy;
+
+import java.util.Arrays;
+
+/**
+ * Set of non-negative longs (such as 48-bit MAC addresses), stored in a single array using open
+ * addressing with linear probing. This avoids boxing every element, and keeps lookups free of
+ * allocations.
+ */
+
+public class LongHashSet {
+    // Marks a free slot in the table. Negative values can therefore not be stored.
+    private static final long FREE = -1;
+    private static final int MIN_CAPACITY = 4;
+
+    private long[] table;
+    private int size = 0;
+
+    public LongHashSet() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize the number of elements that can be added before the table has to grow
+     */
+    public LongHashSet(int expectedSize) {
+        table = newTable(capacityFor(expectedSize));
+    }
+
+    /**
+     * Create a copy of another set
+     */
+    public LongHashSet(LongHashSet other) {
+        table = other.table.clone();
+        size = other.size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(long value) {
+        if (value < 0)
+            return false;
+        int mask = table.length - 1;
+        for (int slot = slotFor(value, mask); ; slot = (slot + 1) & mask) {
+            long current = table[slot];
+            if (current == value)
+                return true;
+            if (current == FREE)
+                return false;
+        }
+    }
+
+    /**
+     * @return true if the value was not yet in the set
+     */
+    public boolean add(long value) {
+        if (value < 0)
+            throw new IllegalArgumentException("LongHashSet can only store non-negative values");
+        int mask = table.length - 1;
+        int slot = slotFor(value, mask);
+        while (table[slot] != FREE) {
+            if (table[slot] == value)
+                return false;
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = value;
+        size++;
+        // Keep the load factor below 3/4, so probe sequences stay short
+        if (size * 4 >= table.length * 3)
+            rehash(table.length * 2);
+        return true;
+    }
+
+    /**
+     * @return true if the value was in the set
+     */
+    public boolean remove(long value) {
+        if (value < 0)
+            return false;
+        int mask = table.length - 1;
+        int slot = slotFor(value, mask);
+        while (table[slot] != value) {
+            if (table[slot] == FREE)
+                return false;
+            slot = (slot + 1) & mask;
+        }
+        // Shift back the following elements of the probe sequence, instead of leaving a tombstone
+        int free = slot;
+        for (int next = (free + 1) & mask; table[next] != FREE; next = (next + 1) & mask) {
+            int home = slotFor(table[next], mask);
+            // Only move the element if its home slot does not lie in (free, next]
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                table[free] = table[next];
+                free = next;
+            }
+        }
+        table[free] = FREE;
+        size--;
+        return true;
+    }
+
+    /**
+     * @return a newly allocated array containing all elements, in no particular order
+     */
+    public long[] toArray() {
+        long[] result = new long[size];
+        int i = 0;
+        for (long value : table) {
+            if (value != FREE)
+                result[i++] = value;
+        }
+        return result;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldTable = table;
+        table = newTable(capacity);
+        int mask = capacity - 1;
+        for (long value : oldTable) {
+            if (value == FREE)
+                continue;
+            int slot = slotFor(value, mask);
+            while (table[slot] != FREE)
+                slot = (slot + 1) & mask;
+            table[slot] = value;
+        }
+    }
+
+    private static int slotFor(long value, int mask) {
+        // Spread the bits of the value, since the lower bits of MAC addresses of access points
+        // from the same vendor tend to be very similar
+        long hash = value * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 <= expectedSize * 4)
+            capacity *= 2;
+        return capacity;
+    }
+
+    private static long[] newTable(int capacity) {
+        long[] newTable = new long[capacity];
+        Arrays.fill(newTable, FREE);
+        return newTable;
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package be.uhasselt.privacypolice.policy;
+
+/**
+ * Request to ask the user whether an access point should be trusted for a network
+ */
+public class PermissionPrompt {
+    public final String SSID;
+    // The MAC address of the access point that triggered this (only used when the user blocks it),
+    // as returned by BSSIDCodec.parse()
+    public final long BSSID;
+    // Signal strength of the access point, used to show the strongest networks first
+    public final int level;
+
+    public PermissionPrompt(String SSID, long BSSID, int level) {
+        this.SSID = SSID;
+        this.BSSID = BSSID;
+        this.level = level;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package be.uhasselt.privacypolice.policy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of evaluating a scan: which configured networks to enable and disable, and which
+ * networks to ask the user about
+ */
+public class PolicyDecision {
+    public final List<ConfiguredNetwork> trusted = new ArrayList<>();
+    // Networks that are either untrusted, or for which we need to ask the user first
+    public final List<ConfiguredNetwork> untrusted = new ArrayList<>();
+    public final List<PermissionPrompt> prompts = new ArrayList<>();
+    // Access points in range that the user blocked, i.e. that are likely spoofing a known network
+    public final List<AccessPoint> spoofed = new ArrayList<>();
+    // The BSSIDs of the access points we are currently asking the user about, by SSID
+    private final Map<String, Long> shownPrompts;
+
+    public PolicyDecision() {
+        this(Collections.<String, Long>emptyMap());
+    }
+
+    /**
+     * @param shownPrompts the BSSIDs of the access points we are currently asking the user about,
+     *                     by SSID. As long as such an access point is still unknown and in range,
+     *                     it is asked about again instead of the strongest unknown access point,
+     *                     so a small change in signal strength does not replace the question.
+     */
+    public PolicyDecision(Map<String, Long> shownPrompts) {
+        this.shownPrompts = shownPrompts;
+    }
+
+    /**
+     * @return the BSSID of the access point we are currently asking about for a network, or
+     *          BSSIDCodec.INVALID if there is none
+     */
+    public long getShownPrompt(String SSID) {
+        Long BSSID = shownPrompts.get(SSID);
+        return BSSID == null ? BSSIDCodec.INVALID : BSSID;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package be.uhasselt.privacypolice.policy;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides which networks can be trusted, based on the access points that are in range and the
+ * user's decisions. The engine has no side effects: it returns what should happen, and leaves
+ * enabling networks and asking the user to the caller.
+ */
+public class PolicyEngine {
+    private final TrustStore trustStore;
+
+    public PolicyEngine(TrustStore trustStore) {
+        this.trustStore = trustStore;
+    }
+
+    /**
+     * Decide for every configured network whether it should be enabled
+     * @param settings The user's settings
+     * @param networks The networks configured on the device
+     * @param scanIndex The networks that are currently available
+     */
+    public PolicyDecision evaluate(PolicySettings settings, List<ConfiguredNetwork> networks, ScanIndex scanIndex) {
+        return evaluate(settings, networks, scanIndex, Collections.<String, Long>emptyMap());
+    }
+
+    /**
+     * Decide for every configured network whether it should be enabled
+     * @param settings The user's settings
+     * @param networks The networks configured on the device
+     * @param scanIndex The networks that are currently available
+     * @param shownPrompts The BSSIDs of the access points we are currently asking the user about,
+     *                     by SSID (see PolicyDecision)
+     */
+    public PolicyDecision evaluate(PolicySettings settings, List<ConfiguredNetwork> networks, ScanIndex scanIndex,
+                                   Map<String, Long> shownPrompts) {
+        PolicyDecision decision = new PolicyDecision(shownPrompts);
+        for (ConfiguredNetwork network : networks) {
+            AccessPointSafety networkSafety = getNetworkSafety(settings, network, scanIndex, decision);
+            if (networkSafety == AccessPointSafety.TRUSTED)
+                decision.trusted.add(network);
+            else
+                decision.untrusted.add(network);
+        }
+        return decision;
+    }
+
+    /**
+     * Checks whether we should allow connection to a given network, based on the user's preferences
+     * @param settings The user's settings
+     * @param network The network that should be checked
+     * @param scanIndex The networks that are currently available
+     * @param decision If not null, the access point to ask the user about (if it is unknown
+     *                 whether the network should be trusted) and any blocked access points in range
+     *                 are added to it
+     * @return TRUSTED or UNTRUSTED, based on the user's preferences, or UNKNOWN if the user didn't
+     *          specify anything yet
+     */
+    public AccessPointSafety getNetworkSafety(PolicySettings settings, ConfiguredNetwork network, ScanIndex scanIndex,
+                                              PolicyDecision decision) {
+        // If all settings are disabled by the user, then allow every network
+        // This effectively disables all of the app's functionalities
+        if (!(settings.onlyAvailableNetworks || settings.onlyKnownAccessPoints)) {
+            return AccessPointSafety.TRUSTED; // Allow every network
+        }
+        // If location access is disabled by the user (or if it is not granted to our app), allow
+        // every network (as otherwise PrivacyPolice would block normal operation of the phone).
+        // Rationale: a huge warning is displayed both as a notification, and in the main activity
+        // when the user does not enable location access. It is unfortunately the only way for us
+        // to view scan results
+        // Some devices still allow scan results to be passed on even if the location is disabled.
+        // In this case, we operate as normally by checking if any network is in range
+        if (!settings.locationEnabled && scanIndex.size() == 0) {
+            return AccessPointSafety.TRUSTED; // Allow every network
+        }
+
+        // Always enable hidden networks, since they *need* to use directed probe requests
+        // in order to be discovered. Note that using hidden SSID's does not add any
+        // real security , so it's best to avoid them whenever possible.
+        if (network.hiddenSSID)
+            return AccessPointSafety.TRUSTED;
+
+        // The SSID could not be converted to the form in which it appears in scan results, so we
+        // will never see this network in range
+        if (network.SSID == null)
+            return AccessPointSafety.UNTRUSTED;
+
+        return getNetworkSafety(settings, network.SSID, scanIndex, decision);
+    }
+
+    /**
+     * Checks whether we should allow connection to a given SSID, based on the user's preferences
+     * All access points advertising the SSID are taken into account: a single blocked access
+     * point makes the network untrusted (since Android might pick that one to connect to), and
+     * the network is only trusted when every access point in range is.
+     * @param settings The user's settings
+     * @param SSID The SSID of the network that should be checked
+     * @param scanIndex The networks that are currently available
+     * @param decision If it is unknown whether the network should be trusted, the strongest unknown
+     *                 access point (or the one that is already asked about, see PolicyDecision)
+     *                 is added to its prompts. A blocked access point in range is
+     *                 added to its spoofed access points. May be null.
+     * @return TRUSTED or UNTRUSTED, based on the user's preferences, or UNKNOWN if the user didn't
+     *          specify anything yet
+     */
+    public AccessPointSafety getNetworkSafety(PolicySettings settings, String SSID, ScanIndex scanIndex,
+                                              PolicyDecision decision) {
+        List<AccessPoint> accessPoints = scanIndex.getAccessPoints(SSID);
+        if (accessPoints.isEmpty())
+            return AccessPointSafety.UNTRUSTED; // Network not in range
+
+        // Check whether the user wants to filter by MAC address
+        if (!settings.onlyKnownAccessPoints) { // Any MAC address is fair game
+            // Enabling now makes sure that we only want to connect when it is in range
+            return AccessPointSafety.TRUSTED;
+        }
+
+        // Check every access point's MAC address, and remember the strongest one we don't know yet
+        AccessPoint unknownAccessPoint = null;
+        AccessPoint shownAccessPoint = null;
+        long shownBSSID = decision == null ? BSSIDCodec.INVALID : decision.getShownPrompt(SSID);
+        for (AccessPoint accessPoint : accessPoints) {
+            // Check if the MAC address is in the list of allowed MAC's for this SSID
+            if (trustStore.isAllowed(SSID, accessPoint.BSSID))
+                continue;
+            if (trustStore.isBlocked(SSID, accessPoint.BSSID)) {
+                // This SSID was explicitly blocked by the user!
+                if (decision != null)
+                    decision.spoofed.add(accessPoint);
+                return AccessPointSafety.UNTRUSTED;
+            }
+            if (unknownAccessPoint == null || accessPoint.level > unknownAccessPoint.level)
+                unknownAccessPoint = accessPoint;
+            if (accessPoint.BSSID == shownBSSID)
+                shownAccessPoint = accessPoint;
+        }
+        // Keep asking about the same access point while it is in range
+        if (shownAccessPoint != null)
+            unknownAccessPoint = shownAccessPoint;
+
+        if (unknownAccessPoint != null) {
+            // We don't know yet whether the user wants to allow this network
+            if (decision != null)
+                decision.prompts.add(new PermissionPrompt(SSID, unknownAccessPoint.BSSID, unknownAccessPoint.level));
+            return AccessPointSafety.UNKNOWN;
+        }
+        return AccessPointSafety.TRUSTED;
+    }
+}
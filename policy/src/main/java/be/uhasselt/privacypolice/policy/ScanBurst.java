@@ -0,0 +1,63 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package be.uhasselt.privacypolice.policy;
+
+/**
+ * Keeps track of a burst of scans, to decide when an action that handles them should run: once no
+ * new scan arrived for a given window (the trailing edge of the burst), or when the first scan of
+ * the burst has been waiting for the maximum delay, whichever comes first. Times are in ms, on any
+ * monotonic clock.
+ */
+
+public final class ScanBurst {
+    private final long window;
+    private final long maxDelay;
+    // Time at which the first scan of the current burst arrived, or -1 if there is no burst
+    private long start = -1;
+
+    /**
+     * @param window the time without new scans after which the action runs
+     * @param maxDelay the maximum time the first scan of a burst may wait for the action
+     */
+    public ScanBurst(long window, long maxDelay) {
+        this.window = window;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Record that a scan arrived
+     * @param now the current time
+     * @return the time at which the action should run (replacing any earlier time that was returned)
+     */
+    public synchronized long onScan(long now) {
+        if (start < 0)
+            start = now;
+        // Postpone the pending run, but never past the maximum delay
+        return Math.min(now + window, start + maxDelay);
+    }
+
+    /**
+     * Record that the action ran, so the next scan starts a new burst
+     */
+    public synchronized void onRun() {
+        start = -1;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package be.uhasselt.privacypolice.policy;
+
+import java.util.List;
+
+/**
+ * Computes a cheap fingerprint of the set of (SSID, BSSID) pairs in a scan. The fingerprint does
+ * not depend on the order of the scan results, nor on signal strengths, so two scans that found the
+ * same access points get the same fingerprint.
+ */
+
+public final class ScanFingerprint {
+    private ScanFingerprint() {
+    }
+
+    /**
+     * @param scanResults the access points found in the scan
+     * @return the fingerprint of the scan
+     */
+    public static long of(List<AccessPoint> scanResults) {
+        long sum = 0;
+        long xor = 0;
+        for (AccessPoint scanResult : scanResults) {
+            long hash = scanResult.SSID == null ? 0 : scanResult.SSID.hashCode();
+            hash = mix(hash * 31 + scanResult.BSSID);
+            // Both sum and xor are commutative, so the order of the results does not matter.
+            // Combining the two makes it unlikely that different sets end up with the same value.
+            sum += hash;
+            xor ^= mix(hash);
+        }
+        return mix(sum ^ Long.rotateLeft(xor, 32) ^ scanResults.size());
+    }
+
+    /**
+     * Spread the bits of a value (finalizer of the 64-bit MurmurHash3)
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
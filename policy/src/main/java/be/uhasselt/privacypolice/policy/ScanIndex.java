@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package be.uhasselt.privacypolice.policy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the results of a single Wi-Fi scan, grouping all access points by the SSID they
+ * advertise. It is built once per scan, so that deciding on each configured network does not
+ * require going through all scan results again.
+ */
+
+public class ScanIndex {
+    private final Map<String, List<AccessPoint>> resultsBySSID;
+    private final int size;
+
+    /**
+     * @param scanResults the access points found in the scan
+     */
+    public ScanIndex(List<AccessPoint> scanResults) {
+        resultsBySSID = new HashMap<>(scanResults.size() * 2);
+        for (AccessPoint scanResult : scanResults) {
+            if (scanResult.SSID == null)
+                continue;
+            List<AccessPoint> accessPoints = resultsBySSID.get(scanResult.SSID);
+            if (accessPoints == null) {
+                // Most SSIDs are only advertised by a single access point
+                accessPoints = new ArrayList<>(1);
+                resultsBySSID.put(scanResult.SSID, accessPoints);
+            }
+            accessPoints.add(scanResult);
+        }
+        size = scanResults.size();
+    }
+
+    /**
+     * Get all access points that advertise a given SSID
+     * @param SSID the SSID of the network
+     * @return the access points for the SSID, or an empty list if it is not in range
+     */
+    public List<AccessPoint> getAccessPoints(String SSID) {
+        List<AccessPoint> accessPoints = resultsBySSID.get(SSID);
+        if (accessPoints == null)
+            return Collections.emptyList();
+        return accessPoints;
+    }
+
+    /**
+     * @return the total number of access points found in the scan
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package be.uhasselt.privacypolice.policy;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory index of the trusted and untrusted access points for every SSID.
+ * MAC addresses are kept in their 48-bit form (see BSSIDCodec), so that lookups neither have to
+ * hash strings nor allocate. Lookups never lock, and can run concurrently with changes.
+ * Next to the access points, the index keeps the number of allowed and blocked access points of
+ * every known SSID, which is updated on every change, so listing the known networks does not have
+ * to look at their access points.
+ */
+public class TrustIndex implements TrustStore {
+    /**
+     * The number of allowed and blocked access points of a network
+     */
+    public static final class NetworkCounts {
+        public final int allowed;
+        public final int blocked;
+
+        NetworkCounts(int allowed, int blocked) {
+            this.allowed = allowed;
+            this.blocked = blocked;
+        }
+    }
+
+    // Map from SSID to its BSSIDs. Only non-empty sets are kept. The sets themselves are never
+    // modified once they are in the map (they are replaced instead), so they can be read without
+    // locking while a change is being made.
+    private final Map<String, LongHashSet> allowedBSSIDs = new ConcurrentHashMap<>();
+    private final Map<String, LongHashSet> blockedBSSIDs = new ConcurrentHashMap<>();
+    // Map from SSID to its number of allowed and blocked BSSIDs, for every SSID that has at least
+    // one of them
+    private final Map<String, NetworkCounts> networks = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean isAllowed(String SSID, long BSSID) {
+        LongHashSet BSSIDs = allowedBSSIDs.get(SSID);
+        return BSSIDs != null && BSSIDs.contains(BSSID);
+    }
+
+    @Override
+    public boolean isBlocked(String SSID, long BSSID) {
+        LongHashSet BSSIDs = blockedBSSIDs.get(SSID);
+        return BSSIDs != null && BSSIDs.contains(BSSID);
+    }
+
+    /**
+     * Get the trusted MAC addresses for a given SSID
+     * @param SSID the SSID of the network
+     * @return a newly allocated array of 48-bit MAC addresses
+     */
+    public long[] getAllowedBSSIDs(String SSID) {
+        return getBSSIDs(allowedBSSIDs, SSID);
+    }
+
+    /**
+     * Get the blocked MAC addresses for a given SSID
+     * @param SSID the SSID of the network
+     * @return a newly allocated array of 48-bit MAC addresses
+     */
+    public long[] getBlockedBSSIDs(String SSID) {
+        return getBSSIDs(blockedBSSIDs, SSID);
+    }
+
+    private static long[] getBSSIDs(Map<String, LongHashSet> index, String SSID) {
+        LongHashSet BSSIDs = index.get(SSID);
+        if (BSSIDs == null)
+            return new long[0];
+        return BSSIDs.toArray();
+    }
+
+    /**
+     * Get a list of SSIDs for which we know at least one BSSID (either allowed or blocked)
+     */
+    public Set<String> getNonemptySSIDs() {
+        return new HashSet<>(networks.keySet());
+    }
+
+    /**
+     * Get the number of allowed and blocked BSSIDs of every SSID for which we know at least one
+     * @return a read-only view, which reflects later changes to the index
+     */
+    public Map<String, NetworkCounts> getNetworkCounts() {
+        return Collections.unmodifiableMap(networks);
+    }
+
+    /**
+     * Replace all allowed or blocked BSSIDs of a network
+     * @param SSID the SSID of the network
+     * @param allowed when true, replace the allowed BSSIDs, when false, replace the blocked BSSIDs
+     * @param BSSIDs the new BSSIDs. The set must not be modified afterwards.
+     */
+    public synchronized void put(String SSID, boolean allowed, LongHashSet BSSIDs) {
+        Map<String, LongHashSet> index = allowed ? allowedBSSIDs : blockedBSSIDs;
+        if (BSSIDs.isEmpty())
+            index.remove(SSID);
+        else
+            index.put(SSID, BSSIDs);
+        updateCounts(SSID);
+    }
+
+    private void updateCounts(String SSID) {
+        LongHashSet allowed = allowedBSSIDs.get(SSID);
+        LongHashSet blocked = blockedBSSIDs.get(SSID);
+        if (allowed == null && blocked == null)
+            networks.remove(SSID);
+        else
+            networks.put(SSID, new NetworkCounts(allowed == null ? 0 : allowed.size(),
+                    blocked == null ? 0 : blocked.size()));
+    }
+
+    /**
+     * Add or remove a single BSSID
+     * @param SSID the SSID of the network
+     * @param BSSID the MAC address of the access point, as returned by BSSIDCodec.parse()
+     * @param allowed when true, edit the allowed BSSIDs, when false, edit the blocked BSSIDs
+     * @param add when true, add the BSSID to the list, when false, remove it
+     * @return whether the index changed. It never does for BSSIDCodec.INVALID.
+     */
+    public synchronized boolean edit(String SSID, long BSSID, boolean allowed, boolean add) {
+        if (BSSID == BSSIDCodec.INVALID)
+            return false;
+        Map<String, LongHashSet> index = allowed ? allowedBSSIDs : blockedBSSIDs;
+        LongHashSet current = index.get(SSID);
+        if (current == null ? !add : current.contains(BSSID) == add)
+            return false;
+        // Edit a copy of the set, so concurrent readers never see it while it is changing
+        LongHashSet newList = current == null ? new LongHashSet() : new LongHashSet(current);
+        if (add)
+            newList.add(BSSID);
+        else
+            newList.remove(BSSID);
+        put(SSID, allowed, newList);
+        return true;
+    }
+
+    /**
+     * Add or remove several BSSIDs of a network at once. The set of the network is only copied
+     * once, and readers see either none or all of the changes.
+     * @param SSID the SSID of the network
+     * @param allowed when true, edit the allowed BSSIDs, when false, edit the blocked BSSIDs
+     * @param BSSIDs the MAC addresses of the access points, as returned by BSSIDCodec.parse()
+     * @param add when true, add the BSSIDs to the list, when false, remove them
+     * @return the BSSIDs that were actually added or removed. BSSIDCodec.INVALID is skipped.
+     */
+    public synchronized long[] editAll(String SSID, boolean allowed, long[] BSSIDs, boolean add) {
+        LongHashSet current = (allowed ? allowedBSSIDs : blockedBSSIDs).get(SSID);
+        if (current == null && !add)
+            return new long[0];
+        LongHashSet newList = current == null ? new LongHashSet(BSSIDs.length) : new LongHashSet(current);
+        long[] changed = new long[BSSIDs.length];
+        int changedCount = 0;
+        for (long BSSID : BSSIDs) {
+            if (BSSID == BSSIDCodec.INVALID)
+                continue;
+            if (add ? newList.add(BSSID) : newList.remove(BSSID))
+                changed[changedCount++] = BSSID;
+        }
+        if (changedCount > 0)
+            put(SSID, allowed, newList);
+        return Arrays.copyOf(changed, changedCount);
+    }
+
+    /**
+     * Forget all allowed and blocked BSSIDs of a network
+     */
+    public synchronized void clearNetwork(String SSID) {
+        allowedBSSIDs.remove(SSID);
+        blockedBSSIDs.remove(SSID);
+        networks.remove(SSID);
+    }
+
+    /**
+     * Forget all allowed and blocked BSSIDs
+     */
+    public synchronized void clear() {
+        allowedBSSIDs.clear();
+        blockedBSSIDs.clear();
+        networks.clear();
+    }
+
+    /**
+     * @return the number of networks with at least one allowed BSSID
+     */
+    public int getAllowedNetworkCount() {
+        return allowedBSSIDs.size();
+    }
+
+    /**
+     * @return the number of networks with at least one blocked BSSID
+     */
+    public int getBlockedNetworkCount() {
+        return blockedBSSIDs.size();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package be.uhasselt.privacypolice.policy;
+
+/**
+ * Text format in which the trusted and blocked access points can be exported, and imported on
+ * other devices. The format is line based (UTF-8), so it can be read and written as a stream:
+ * <pre>
+ * PrivacyPolice trust list 1
+ * S Corporate Wi-Fi
+ * A 00:11:22:33:44:55
+ * A 00:11:22:33:44:56
+ * B 00:11:22:33:44:57
+ * S Guest
+ * ...
+ * </pre>
+ * The first line holds the version of the format. Every network starts with an "S" line holding
+ * its SSID, which can not be empty, and in which backslashes and line breaks are escaped ("\\",
+ * "\n" and "\r"). It is followed by its allowed ("A") and blocked ("B") access points, one per
+ * line. Exported lists are sorted by SSID, but readers do not rely on that. Empty lines and lines
+ * starting with "#" are ignored.
+ * An imported list never overrides the verdicts that are already known: an access point that is
+ * known with the opposite verdict is skipped. If a list holds both verdicts for the same access
+ * point, the first one is used.
+ */
+
+public final class TrustListFormat {
+    public static final int VERSION = 1;
+    static final String HEADER = "PrivacyPolice trust list ";
+    static final char SSID_RECORD = 'S';
+    static final char ALLOWED_RECORD = 'A';
+    static final char BLOCKED_RECORD = 'B';
+    static final char COMMENT = '#';
+
+    private TrustListFormat() {
+    }
+
+    static String escapeSSID(String SSID) {
+        StringBuilder result = new StringBuilder(SSID.length());
+        for (int i = 0; i < SSID.length(); i++) {
+            char c = SSID.charAt(i);
+            switch (c) {
+                case '\\':
+                    result.append("\\\\");
+                    break;
+                case '\n':
+                    result.append("\\n");
+                    break;
+                case '\r':
+                    result.append("\\r");
+                    break;
+                default:
+                    result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * @return the unescaped SSID, or null if it contains an invalid escape sequence
+     */
+    static String unescapeSSID(String escaped) {
+        StringBuilder result = new StringBuilder(escaped.length());
+        for (int i = 0; i < escaped.length(); i++) {
+            char c = escaped.charAt(i);
+            if (c != '\\') {
+                result.append(c);
+                continue;
+            }
+            if (++i == escaped.length())
+                return null;
+            switch (escaped.charAt(i)) {
+                case '\\':
+                    result.append('\\');
+                    break;
+                case 'n':
+                    result.append('\n');
+                    break;
+                case 'r':
+                    result.append('\r');
+                    break;
+                default:
+                    return null;
+            }
+        }
+        return result.toString();
+    }
+}
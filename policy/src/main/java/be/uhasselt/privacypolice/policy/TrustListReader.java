@@ -0,0 +1,136 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package be.uhasselt.privacypolice.policy;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads access points in the format described in TrustListFormat, one at a time, so the whole
+ * list never has to be in memory:
+ * <pre>
+ * while (reader.next())
+ *     store(reader.getSSID(), reader.getBSSID(), reader.isAllowed());
+ * </pre>
+ * Any line that can not be parsed makes the reader throw an IOException, so a damaged list is
+ * never imported partially by accident.
+ */
+
+public class TrustListReader implements Closeable {
+    private final BufferedReader reader;
+    private int lineNumber = 0;
+    private String SSID = null;
+    private long BSSID = BSSIDCodec.INVALID;
+    private boolean allowed = false;
+
+    /**
+     * @throws IOException if the list is not in a format we can read
+     */
+    public TrustListReader(Reader reader) throws IOException {
+        this.reader = new BufferedReader(reader);
+        String header = nextLine();
+        if (header == null || !header.startsWith(TrustListFormat.HEADER))
+            throw new IOException("Not a trust list");
+        int version;
+        try {
+            version = Integer.parseInt(header.substring(TrustListFormat.HEADER.length()).trim());
+        } catch (NumberFormatException nfe) {
+            throw new IOException("Invalid trust list version: " + header);
+        }
+        if (version < 1 || version > TrustListFormat.VERSION)
+            throw new IOException("Unsupported trust list version " + version);
+    }
+
+    /**
+     * Advance to the next access point
+     * @return false if the end of the list was reached
+     * @throws IOException if the list could not be read, or contains an invalid line
+     */
+    public boolean next() throws IOException {
+        String line;
+        while ((line = nextLine()) != null) {
+            if (line.isEmpty() || line.charAt(0) == TrustListFormat.COMMENT)
+                continue;
+            if (line.length() < 2 || line.charAt(1) != ' ')
+                throw invalidLine("missing record type");
+            String value = line.substring(2);
+            switch (line.charAt(0)) {
+                case TrustListFormat.SSID_RECORD:
+                    SSID = TrustListFormat.unescapeSSID(value);
+                    // No network has an empty SSID, and the database does not keep such entries
+                    if (SSID == null || SSID.isEmpty())
+                        throw invalidLine("invalid SSID");
+                    continue;
+                case TrustListFormat.ALLOWED_RECORD:
+                case TrustListFormat.BLOCKED_RECORD:
+                    if (SSID == null)
+                        throw invalidLine("access point before the first SSID");
+                    BSSID = BSSIDCodec.parse(value.trim());
+                    if (BSSID == BSSIDCodec.INVALID)
+                        throw invalidLine("invalid MAC address");
+                    allowed = line.charAt(0) == TrustListFormat.ALLOWED_RECORD;
+                    return true;
+                default:
+                    throw invalidLine("unknown record type");
+            }
+        }
+        return false;
+    }
+
+    private String nextLine() throws IOException {
+        String line = reader.readLine();
+        if (line != null)
+            lineNumber++;
+        return line;
+    }
+
+    private IOException invalidLine(String reason) {
+        return new IOException("Line " + lineNumber + " of the trust list is invalid: " + reason);
+    }
+
+    /**
+     * @return the SSID of the current access point
+     */
+    public String getSSID() {
+        return SSID;
+    }
+
+    /**
+     * @return the MAC address of the current access point, as returned by BSSIDCodec.parse()
+     */
+    public long getBSSID() {
+        return BSSID;
+    }
+
+    /**
+     * @return whether the current access point is allowed (or blocked)
+     */
+    public boolean isAllowed() {
+        return allowed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
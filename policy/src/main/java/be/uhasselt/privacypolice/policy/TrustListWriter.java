@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package be.uhasselt.privacypolice.policy;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes access points in the format described in TrustListFormat. Access points are written as
+ * they are passed in, so the whole list never has to be in memory. To keep the output compact,
+ * all access points of a network should be passed in one after the other.
+ */
+
+public class TrustListWriter implements Closeable {
+    private final BufferedWriter writer;
+    // SSID of the last access point that was written
+    private String currentSSID = null;
+
+    public TrustListWriter(Writer writer) throws IOException {
+        this.writer = new BufferedWriter(writer);
+        this.writer.write(TrustListFormat.HEADER + TrustListFormat.VERSION);
+        this.writer.newLine();
+    }
+
+    /**
+     * @param SSID the SSID of the network
+     * @param BSSID the MAC address of the access point, as returned by BSSIDCodec.parse()
+     * @param allowed whether the access point is allowed or blocked
+     */
+    public void write(String SSID, long BSSID, boolean allowed) throws IOException {
+        if (!SSID.equals(currentSSID)) {
+            writer.write(TrustListFormat.SSID_RECORD);
+            writer.write(' ');
+            writer.write(TrustListFormat.escapeSSID(SSID));
+            writer.newLine();
+            currentSSID = SSID;
+        }
+        writer.write(allowed ? TrustListFormat.ALLOWED_RECORD : TrustListFormat.BLOCKED_RECORD);
+        writer.write(' ');
+        writer.write(BSSIDCodec.format(BSSID));
+        writer.newLine();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
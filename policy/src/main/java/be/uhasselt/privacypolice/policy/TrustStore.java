@@ -0,0 +1,39 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package be.uhasselt.privacypolice.policy;
+
+/**
+ * Source of the user's decisions on which access points to trust for a network
+ */
+public interface TrustStore {
+    /**
+     * Check whether an access point is trusted for a given SSID
+     * @param SSID the SSID of the network
+     * @param BSSID the MAC address of the access point, as returned by BSSIDCodec.parse()
+     */
+    boolean isAllowed(String SSID, long BSSID);
+
+    /**
+     * Check whether an access point is blocked for a given SSID
+     * @param SSID the SSID of the network
+     * @param BSSID the MAC address of the access point, as returned by BSSIDCodec.parse()
+     */
+    boolean isBlocked(String SSID, long BSSID);
+}
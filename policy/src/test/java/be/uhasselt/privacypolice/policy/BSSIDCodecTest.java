@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package be.uhasselt.privacypolice.policy;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class BSSIDCodecTest {
+    @Test
+    public void parsesLowerAndUpperCase() {
+        assertEquals(0x001122aabbccL, BSSIDCodec.parse("00:11:22:aa:bb:cc"));
+        assertEquals(0x001122aabbccL, BSSIDCodec.parse("00:11:22:AA:BB:CC"));
+    }
+
+    @Test
+    public void parsesExtremes() {
+        assertEquals(0L, BSSIDCodec.parse("00:00:00:00:00:00"));
+        assertEquals(0xffffffffffffL, BSSIDCodec.parse("ff:ff:ff:ff:ff:ff"));
+    }
+
+    @Test
+    public void rejectsMalformedAddresses() {
+        assertEquals(BSSIDCodec.INVALID, BSSIDCodec.parse(null));
+        assertEquals(BSSIDCodec.INVALID, BSSIDCodec.parse(""));
+        assertEquals(BSSIDCodec.INVALID, BSSIDCodec.parse("00:11:22:33:44"));
+        assertEquals(BSSIDCodec.INVALID, BSSIDCodec.parse("00:11:22:33:44:555"));
+        assertEquals(BSSIDCodec.INVALID, BSSIDCodec.parse("00-11-22-33-44-55"));
+        assertEquals(BSSIDCodec.INVALID, BSSIDCodec.parse("00:11:22:33:44:5g"));
+    }
+
+    @Test
+    public void formatsLikeAndroid() {
+        assertEquals("00:11:22:aa:bb:cc", BSSIDCodec.format(0x001122aabbccL));
+        assertEquals("00:00:00:00:00:01", BSSIDCodec.format(1));
+    }
+
+    @Test
+    public void formatIsTheInverseOfParse() {
+        String[] BSSIDs = {"00:00:00:00:00:00", "ff:ff:ff:ff:ff:ff", "12:34:56:78:9a:bc", "a0:0b:c0:0d:e0:0f"};
+        for (String BSSID : BSSIDs)
+            assertEquals(BSSID, BSSIDCodec.format(BSSIDCodec.parse(BSSID)));
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package be.uhasselt.privacypolice.policy;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LongHashSetTest {
+    @Test
+    public void addContainsRemove() {
+        LongHashSet set = new LongHashSet();
+        assertTrue(set.isEmpty());
+        assertTrue(set.add(42));
+        assertFalse(set.add(42));
+        assertTrue(set.contains(42));
+        assertEquals(1, set.size());
+        assertTrue(set.remove(42));
+        assertFalse(set.remove(42));
+        assertFalse(set.contains(42));
+        assertTrue(set.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeValues() {
+        new LongHashSet().add(-1);
+    }
+
+    @Test
+    public void negativeValuesAreNeverContained() {
+        LongHashSet set = new LongHashSet();
+        assertFalse(set.contains(BSSIDCodec.INVALID));
+        assertFalse(set.remove(BSSIDCodec.INVALID));
+    }
+
+    @Test
+    public void growsBeyondItsInitialCapacity() {
+        LongHashSet set = new LongHashSet(2);
+        for (long i = 0; i < 1000; i++)
+            assertTrue(set.add(i * 0x1000000L));
+        assertEquals(1000, set.size());
+        for (long i = 0; i < 1000; i++)
+            assertTrue(set.contains(i * 0x1000000L));
+    }
+
+    /**
+     * Removing an element shifts the rest of its probe sequence back. If that is done wrong,
+     * elements further down the sequence can no longer be found. A small range of values in a
+     * small table makes long probe sequences (and wrap-arounds) likely.
+     */
+    @Test
+    public void removalKeepsProbeSequencesIntact() {
+        Random random = new Random(1);
+        LongHashSet set = new LongHashSet();
+        Set<Long> expected = new HashSet<>();
+        for (int i = 0; i < 100000; i++) {
+            long value = random.nextInt(64);
+            if (random.nextBoolean())
+                assertEquals(expected.add(value), set.add(value));
+            else
+                assertEquals(expected.remove(value), set.remove(value));
+            assertEquals(expected.size(), set.size());
+        }
+        for (long value = 0; value < 64; value++)
+            assertEquals(expected.contains(value), set.contains(value));
+    }
+
+    @Test
+    public void copyIsIndependent() {
+        LongHashSet original = new LongHashSet();
+        original.add(1);
+        LongHashSet copy = new LongHashSet(original);
+        copy.add(2);
+        copy.remove(1);
+        assertTrue(original.contains(1));
+        assertFalse(original.contains(2));
+    }
+
+    @Test
+    public void toArrayContainsAllElements() {
+        LongHashSet set = new LongHashSet();
+        set.add(3);
+        set.add(5);
+        set.add(7);
+        set.remove(5);
+        long[] values = set.toArray();
+        assertEquals(2, values.length);
+        assertEquals(10, values[0] + values[1]);
+    }
+}
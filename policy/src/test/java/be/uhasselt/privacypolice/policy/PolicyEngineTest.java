@@ -0,0 +1,144 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package be.uhasselt.privacypolice.policy;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PolicyEngineTest {
+    private static final PolicySettings ONLY_KNOWN = new PolicySettings(true, true, true);
+    private static final PolicySettings ONLY_AVAILABLE = new PolicySettings(true, false, true);
+    private static final PolicySettings DISABLED = new PolicySettings(false, false, true);
+
+    private static final long TRUSTED_BSSID = 0x000000000001L;
+    private static final long BLOCKED_BSSID = 0x000000000002L;
+    private static final long UNKNOWN_BSSID = 0x000000000003L;
+
+    private TrustIndex trustIndex;
+    private PolicyEngine engine;
+
+    @Before
+    public void setUp() {
+        trustIndex = new TrustIndex();
+        trustIndex.edit("home", TRUSTED_BSSID, true, true);
+        trustIndex.edit("home", BLOCKED_BSSID, false, true);
+        engine = new PolicyEngine(trustIndex);
+    }
+
+    private static ScanIndex scan(AccessPoint... accessPoints) {
+        return new ScanIndex(Arrays.asList(accessPoints));
+    }
+
+    private static AccessPoint accessPoint(String SSID, long BSSID, int level) {
+        return new AccessPoint(SSID, BSSID, level, "");
+    }
+
+    @Test
+    public void networkOutOfRangeIsUntrusted() {
+        assertEquals(AccessPointSafety.UNTRUSTED,
+                engine.getNetworkSafety(ONLY_KNOWN, "home", scan(accessPoint("other", TRUSTED_BSSID, -50)), null));
+    }
+
+    @Test
+    public void anyAccessPointIsTrustedWhenNotFilteringByMAC() {
+        assertEquals(AccessPointSafety.TRUSTED,
+                engine.getNetworkSafety(ONLY_AVAILABLE, "home", scan(accessPoint("home", UNKNOWN_BSSID, -50)), null));
+    }
+
+    @Test
+    public void trustedAccessPointIsTrusted() {
+        assertEquals(AccessPointSafety.TRUSTED,
+                engine.getNetworkSafety(ONLY_KNOWN, "home", scan(accessPoint("home", TRUSTED_BSSID, -50)), null));
+    }
+
+    @Test
+    public void blockedAccessPointMakesNetworkUntrusted() {
+        PolicyDecision decision = new PolicyDecision();
+        ScanIndex scanIndex = scan(accessPoint("home", TRUSTED_BSSID, -50), accessPoint("home", BLOCKED_BSSID, -70));
+        assertEquals(AccessPointSafety.UNTRUSTED, engine.getNetworkSafety(ONLY_KNOWN, "home", scanIndex, decision));
+        assertEquals(1, decision.spoofed.size());
+        assertEquals(BLOCKED_BSSID, decision.spoofed.get(0).BSSID);
+        assertTrue(decision.prompts.isEmpty());
+    }
+
+    @Test
+    public void unknownAccessPointIsPromptedForStrongestFirst() {
+        PolicyDecision decision = new PolicyDecision();
+        ScanIndex scanIndex = scan(accessPoint("home", TRUSTED_BSSID, -50), accessPoint("home", UNKNOWN_BSSID, -80),
+                accessPoint("home", UNKNOWN_BSSID + 1, -60));
+        assertEquals(AccessPointSafety.UNKNOWN, engine.getNetworkSafety(ONLY_KNOWN, "home", scanIndex, decision));
+        assertEquals(1, decision.prompts.size());
+        assertEquals(UNKNOWN_BSSID + 1, decision.prompts.get(0).BSSID);
+    }
+
+    @Test
+    public void keepsAskingAboutTheShownAccessPoint() {
+        PolicyDecision decision = new PolicyDecision(Collections.singletonMap("home", UNKNOWN_BSSID));
+        ScanIndex scanIndex = scan(accessPoint("home", UNKNOWN_BSSID, -80), accessPoint("home", UNKNOWN_BSSID + 1, -60));
+        assertEquals(AccessPointSafety.UNKNOWN, engine.getNetworkSafety(ONLY_KNOWN, "home", scanIndex, decision));
+        assertEquals(UNKNOWN_BSSID, decision.prompts.get(0).BSSID);
+    }
+
+    @Test
+    public void asksAboutAnotherAccessPointOnceTheShownOneIsGone() {
+        PolicyDecision decision = new PolicyDecision(Collections.singletonMap("home", UNKNOWN_BSSID));
+        ScanIndex scanIndex = scan(accessPoint("home", UNKNOWN_BSSID + 1, -60), accessPoint("home", UNKNOWN_BSSID + 2, -70));
+        assertEquals(AccessPointSafety.UNKNOWN, engine.getNetworkSafety(ONLY_KNOWN, "home", scanIndex, decision));
+        assertEquals(UNKNOWN_BSSID + 1, decision.prompts.get(0).BSSID);
+    }
+
+    @Test
+    public void hiddenNetworksAreAlwaysTrusted() {
+        ConfiguredNetwork hidden = new ConfiguredNetwork(1, "hidden", true, false);
+        assertEquals(AccessPointSafety.TRUSTED, engine.getNetworkSafety(ONLY_KNOWN, hidden, scan(), null));
+    }
+
+    @Test
+    public void everythingIsTrustedWhenDisabled() {
+        ConfiguredNetwork network = new ConfiguredNetwork(1, "home", false, false);
+        assertEquals(AccessPointSafety.TRUSTED, engine.getNetworkSafety(DISABLED, network, scan(), null));
+    }
+
+    @Test
+    public void everythingIsTrustedWithoutLocationAccessOrResults() {
+        ConfiguredNetwork network = new ConfiguredNetwork(1, "home", false, false);
+        assertEquals(AccessPointSafety.TRUSTED,
+                engine.getNetworkSafety(new PolicySettings(true, true, false), network, scan(), null));
+    }
+
+    @Test
+    public void evaluateSplitsNetworks() {
+        ConfiguredNetwork home = new ConfiguredNetwork(1, "home", false, false);
+        ConfiguredNetwork work = new ConfiguredNetwork(2, "work", false, true);
+        PolicyDecision decision = engine.evaluate(ONLY_KNOWN, Arrays.asList(home, work),
+                scan(accessPoint("home", TRUSTED_BSSID, -50), accessPoint("work", UNKNOWN_BSSID, -60)));
+        assertEquals(Collections.singletonList(home), decision.trusted);
+        assertEquals(Collections.singletonList(work), decision.untrusted);
+        assertEquals(1, decision.prompts.size());
+        assertEquals("work", decision.prompts.get(0).SSID);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+
+package be.uhasselt.privacypolice.policy;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ScanBurstTest {
+    private static final long WINDOW = 500;
+    private static final long MAX_DELAY = 2000;
+
+    private ScanBurst burst;
+
+    @Before
+    public void setUp() {
+        burst = new ScanBurst(WINDOW, MAX_DELAY);
+    }
+
+    @Test
+    public void runsAfterTheWindowForASingleScan() {
+        assertEquals(1000 + WINDOW, burst.onScan(1000));
+    }
+
+    @Test
+    public void postponesTheRunForEveryScanInTheWindow() {
+        burst.onScan(1000);
+        assertEquals(1300 + WINDOW, burst.onScan(1300));
+        assertEquals(1700 + WINDOW, burst.onScan(1700));
+    }
+
+    @Test
+    public void neverPostponesPastTheMaximumDelay() {
+        long runAt = 0;
+        for (long now = 1000; now <= 4000; now += 100)
+            runAt = burst.onScan(now);
+        assertEquals(1000 + MAX_DELAY, runAt);
+    }
+
+    @Test
+    public void startsANewBurstAfterARun() {
+        burst.onScan(1000);
+        burst.onScan(2800);
+        burst.onRun();
+        assertEquals(3000 + WINDOW, burst.onScan(3000));
+    }
+
+    @Test
+    public void runsAtTheMaximumDelayWhenItIsShorterThanTheWindow() {
+        burst = new ScanBurst(WINDOW, 200);
+        assertEquals(1200, burst.onScan(1000));
+    }
+}
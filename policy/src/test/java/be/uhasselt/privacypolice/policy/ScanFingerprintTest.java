@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+
+package be.uhasselt.privacypolice.policy;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ScanFingerprintTest {
+    private static final AccessPoint HOME_1 = new AccessPoint("home", 0x000000000001L, -50, "");
+    private static final AccessPoint HOME_2 = new AccessPoint("home", 0x000000000002L, -60, "");
+    private static final AccessPoint WORK_1 = new AccessPoint("work", 0x000000000001L, -70, "[WPA2-PSK-CCMP]");
+
+    private static long fingerprint(AccessPoint... accessPoints) {
+        return ScanFingerprint.of(Arrays.asList(accessPoints));
+    }
+
+    @Test
+    public void doesNotDependOnTheOrderOfTheResults() {
+        assertEquals(fingerprint(HOME_1, HOME_2, WORK_1), fingerprint(WORK_1, HOME_1, HOME_2));
+        assertEquals(fingerprint(HOME_1, HOME_2, WORK_1), fingerprint(HOME_2, WORK_1, HOME_1));
+    }
+
+    @Test
+    public void doesNotDependOnSignalStrengthOrCapabilities() {
+        AccessPoint fartherHome1 = new AccessPoint("home", 0x000000000001L, -90, "[WEP]");
+        assertEquals(fingerprint(HOME_1, WORK_1), fingerprint(fartherHome1, WORK_1));
+    }
+
+    @Test
+    public void changesWhenAnAccessPointAppearsOrDisappears() {
+        long before = fingerprint(HOME_1, HOME_2);
+        assertTrue(before != fingerprint(HOME_1, HOME_2, WORK_1));
+        assertTrue(before != fingerprint(HOME_1));
+        assertTrue(fingerprint(HOME_1) != ScanFingerprint.of(Collections.<AccessPoint>emptyList()));
+    }
+
+    @Test
+    public void changesWhenAnAccessPointIsReplaced() {
+        // Same number of access points, but a different one
+        assertTrue(fingerprint(HOME_1, HOME_2) != fingerprint(HOME_1, WORK_1));
+        // Same BSSID, but a different SSID
+        assertTrue(fingerprint(HOME_1) != fingerprint(WORK_1));
+    }
+
+    @Test
+    public void countsDuplicateResults() {
+        assertTrue(fingerprint(HOME_1) != fingerprint(HOME_1, HOME_1));
+    }
+
+    @Test
+    public void acceptsHiddenNetworks() {
+        AccessPoint hidden = new AccessPoint(null, 0x000000000003L, -50, "");
+        assertTrue(fingerprint(HOME_1) != fingerprint(HOME_1, hidden));
+    }
+}
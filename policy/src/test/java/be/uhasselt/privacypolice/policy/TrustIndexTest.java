@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package be.uhasselt.privacypolice.policy;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TrustIndexTest {
+    private TrustIndex index;
+
+    @Before
+    public void setUp() {
+        index = new TrustIndex();
+    }
+
+    @Test
+    public void rejectsInvalidBSSIDs() {
+        assertFalse(index.edit("home", BSSIDCodec.INVALID, true, true));
+        assertFalse(index.isAllowed("home", BSSIDCodec.INVALID));
+        assertEquals(1, index.editAll("home", false, new long[]{BSSIDCodec.INVALID, 1}, true).length);
+        assertTrue(index.isBlocked("home", 1));
+        assertFalse(index.isBlocked("home", BSSIDCodec.INVALID));
+        assertEquals(1, index.getBlockedBSSIDs("home").length);
+    }
+
+    /**
+     * Check that the counts of a network match its lists
+     */
+    private void assertCounts(String SSID, int allowed, int blocked) {
+        Map<String, TrustIndex.NetworkCounts> counts = index.getNetworkCounts();
+        assertEquals(allowed, index.getAllowedBSSIDs(SSID).length);
+        assertEquals(blocked, index.getBlockedBSSIDs(SSID).length);
+        if (allowed == 0 && blocked == 0) {
+            assertFalse(counts.containsKey(SSID));
+            assertFalse(index.getNonemptySSIDs().contains(SSID));
+        } else {
+            assertEquals(allowed, counts.get(SSID).allowed);
+            assertEquals(blocked, counts.get(SSID).blocked);
+            assertTrue(index.getNonemptySSIDs().contains(SSID));
+        }
+    }
+
+    @Test
+    public void countsSingleEdits() {
+        assertTrue(index.edit("home", 1, true, true));
+        assertTrue(index.edit("home", 2, true, true));
+        assertTrue(index.edit("home", 3, false, true));
+        assertCounts("home", 2, 1);
+        // Adding a BSSID twice does not count it twice
+        assertFalse(index.edit("home", 1, true, true));
+        assertCounts("home", 2, 1);
+
+        assertTrue(index.edit("home", 1, true, false));
+        assertCounts("home", 1, 1);
+        // Removing a BSSID that is not there changes nothing
+        assertFalse(index.edit("home", 1, true, false));
+        assertFalse(index.edit("work", 1, true, false));
+        assertCounts("home", 1, 1);
+        assertCounts("work", 0, 0);
+
+        index.edit("home", 2, true, false);
+        index.edit("home", 3, false, false);
+        assertCounts("home", 0, 0);
+    }
+
+    @Test
+    public void countsBatchEdits() {
+        assertEquals(3, index.editAll("home", true, new long[]{1, 2, 3, 2}, true).length);
+        assertCounts("home", 3, 0);
+        // Only the BSSIDs that are new are added
+        assertEquals(1, index.editAll("home", true, new long[]{3, 4}, true).length);
+        assertEquals(2, index.editAll("home", false, new long[]{5, 6}, true).length);
+        assertCounts("home", 4, 2);
+
+        // Only the BSSIDs that are there are removed
+        assertEquals(2, index.editAll("home", true, new long[]{1, 2, 7}, false).length);
+        assertCounts("home", 2, 2);
+        assertEquals(0, index.editAll("work", true, new long[]{1}, false).length);
+        assertCounts("work", 0, 0);
+
+        index.editAll("home", true, new long[]{3, 4}, false);
+        index.editAll("home", false, new long[]{5, 6}, false);
+        assertCounts("home", 0, 0);
+    }
+
+    @Test
+    public void countsReplacedLists() {
+        LongHashSet BSSIDs = new LongHashSet();
+        BSSIDs.add(1);
+        BSSIDs.add(2);
+        index.put("home", true, BSSIDs);
+        index.edit("home", 3, false, true);
+        assertCounts("home", 2, 1);
+
+        index.put("home", true, new LongHashSet());
+        assertCounts("home", 0, 1);
+    }
+
+    @Test
+    public void countsClearedNetworks() {
+        index.editAll("home", true, new long[]{1, 2}, true);
+        index.edit("home", 3, false, true);
+        index.edit("work", 4, false, true);
+
+        index.clearNetwork("home");
+        assertCounts("home", 0, 0);
+        assertCounts("work", 0, 1);
+        assertEquals(0, index.getAllowedNetworkCount());
+        assertEquals(1, index.getBlockedNetworkCount());
+
+        index.edit("home", 1, true, true);
+        assertCounts("home", 1, 0);
+
+        index.clear();
+        assertCounts("home", 0, 0);
+        assertCounts("work", 0, 0);
+        assertTrue(index.getNetworkCounts().isEmpty());
+        assertEquals(0, index.getAllowedNetworkCount());
+        assertEquals(0, index.getBlockedNetworkCount());
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package be.uhasselt.privacypolice.policy;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TrustListFormatTest {
+    private static final String HEADER = "PrivacyPolice trust list 1\n";
+
+    private static TrustListReader read(String list) throws IOException {
+        return new TrustListReader(new StringReader(list));
+    }
+
+    private static void assertNext(TrustListReader reader, String SSID, String BSSID, boolean allowed)
+            throws IOException {
+        assertTrue(reader.next());
+        assertEquals(SSID, reader.getSSID());
+        assertEquals(BSSIDCodec.parse(BSSID), reader.getBSSID());
+        assertEquals(allowed, reader.isAllowed());
+    }
+
+    /**
+     * Read the whole list, which should fail
+     */
+    private static void readAll(String list) throws IOException {
+        TrustListReader reader = read(list);
+        while (reader.next()) {
+            // Only the exception matters
+        }
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        StringWriter output = new StringWriter();
+        TrustListWriter writer = new TrustListWriter(output);
+        writer.write("home", BSSIDCodec.parse("00:11:22:33:44:55"), true);
+        writer.write("home", BSSIDCodec.parse("00:11:22:33:44:56"), false);
+        writer.write("work", BSSIDCodec.parse("aa:bb:cc:dd:ee:ff"), true);
+        writer.close();
+
+        TrustListReader reader = read(output.toString());
+        assertNext(reader, "home", "00:11:22:33:44:55", true);
+        assertNext(reader, "home", "00:11:22:33:44:56", false);
+        assertNext(reader, "work", "aa:bb:cc:dd:ee:ff", true);
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void writesEverySSIDOnce() throws IOException {
+        StringWriter output = new StringWriter();
+        TrustListWriter writer = new TrustListWriter(output);
+        writer.write("home", 1, true);
+        writer.write("home", 2, true);
+        writer.close();
+        String[] lines = output.toString().split("\r?\n");
+        assertEquals(4, lines.length);
+        assertEquals("S home", lines[1]);
+        assertEquals("A 00:00:00:00:00:01", lines[2]);
+        assertEquals("A 00:00:00:00:00:02", lines[3]);
+    }
+
+    @Test
+    public void escapesSSIDs() throws IOException {
+        String SSID = "back\\slash\nnew\rline S A 00:11:22:33:44:55";
+        StringWriter output = new StringWriter();
+        TrustListWriter writer = new TrustListWriter(output);
+        writer.write(SSID, 1, false);
+        writer.close();
+        assertTrue(output.toString().contains("S back\\\\slash\\nnew\\rline"));
+
+        TrustListReader reader = read(output.toString());
+        assertNext(reader, SSID, "00:00:00:00:00:01", false);
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void readsCRLF() throws IOException {
+        TrustListReader reader = read("PrivacyPolice trust list 1\r\nS home\r\nA 00:11:22:33:44:55\r\n");
+        assertNext(reader, "home", "00:11:22:33:44:55", true);
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void skipsCommentsAndEmptyLines() throws IOException {
+        TrustListReader reader = read(HEADER + "# fleet list\n\nS home\n# office\nB 00:11:22:33:44:55\n");
+        assertNext(reader, "home", "00:11:22:33:44:55", false);
+        assertFalse(reader.next());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsUnknownVersion() throws IOException {
+        read("PrivacyPolice trust list 2\nS home\n");
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsMissingHeader() throws IOException {
+        read("S home\nA 00:11:22:33:44:55\n");
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsInvalidBSSID() throws IOException {
+        readAll(HEADER + "S home\nA 00:11:22:33:44\n");
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsAccessPointWithoutSSID() throws IOException {
+        readAll(HEADER + "A 00:11:22:33:44:55\n");
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsEmptySSID() throws IOException {
+        readAll(HEADER + "S \nA 00:11:22:33:44:55\n");
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsInvalidEscapeSequence() throws IOException {
+        readAll(HEADER + "S home\\t\nA 00:11:22:33:44:55\n");
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsUnknownRecordType() throws IOException {
+        readAll(HEADER + "S home\nX 00:11:22:33:44:55\n");
+    }
+
+    @Test
+    public void readsValidRecordsBeforeAnInvalidOne() throws IOException {
+        TrustListReader reader = read(HEADER + "S home\nA 00:11:22:33:44:55\nA invalid\n");
+        assertNext(reader, "home", "00:11:22:33:44:55", true);
+        try {
+            reader.next();
+            throw new AssertionError("Invalid line was accepted");
+        } catch (IOException expected) {
+            // The importer discards everything it read so far
+        }
+    }
+
+    /**
+     * The importer keeps the first of two verdicts for the same access point (see
+     * TrustListFormat), so the reader has to pass both on, in the order of the list
+     */
+    @Test
+    public void passesConflictingVerdictsOnInOrder() throws IOException {
+        TrustListReader reader = read(HEADER + "S home\nB 00:11:22:33:44:55\nS other\nA 00:11:22:33:44:55\n"
+                + "S home\nA 00:11:22:33:44:55\n");
+        assertNext(reader, "home", "00:11:22:33:44:55", false);
+        assertNext(reader, "other", "00:11:22:33:44:55", true);
+        assertNext(reader, "home", "00:11:22:33:44:55", true);
+        assertFalse(reader.next());
+    }
+}
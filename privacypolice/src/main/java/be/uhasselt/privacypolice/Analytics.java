@@ -26,7 +26,6 @@ package be.uhasselt.privacypolice;
  */
 /*
 import android.content.Context;
-import android.util.Log;
 
 import com.google.android.gms.analytics.GoogleAnalytics;
 import com.google.android.gms.analytics.HitBuilders;
@@ -50,12 +49,12 @@ public class Analytics {
 
     public boolean isTrackingEnabled() {
         if (GooglePlayServicesUtil.isGooglePlayServicesAvailable(context) != ConnectionResult.SUCCESS) {
-            Log.d("PrivacyPolice", "Not using analytics because Google Play services is disabled");
+            Logger.d("Not using analytics because Google Play services is disabled");
             return false;
         }
         PreferencesStorage prefs = new PreferencesStorage(context);
         if (!prefs.getTrackingAllowed()) {
-            Log.d("PrivacyPolice", "Not using analytics because the user has indicated he/she does not want to be tracked");
+            Logger.d("Not using analytics because the user has indicated he/she does not want to be tracked");
             return false;
         }
         return true;
@@ -64,7 +63,7 @@ public class Analytics {
     public void scanCompleted(int nAccessPoints) {
         if (!isTrackingEnabled())
             return;
-        Log.v("PrivacyPolice", "Sending analytics data about a completed scan");
+        Logger.v("Sending analytics data about a completed scan");
         tracker.send(new HitBuilders.EventBuilder()
             .setCategory("Tech")
             .setAction("accessPointsPerScan")
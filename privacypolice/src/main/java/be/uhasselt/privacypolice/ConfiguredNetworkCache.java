@@ -0,0 +1,153 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package be.uhasselt.privacypolice;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.wifi.WifiConfiguration;
+import android.net.wifi.WifiManager;
+import android.os.SystemClock;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import be.uhasselt.privacypolice.policy.ConfiguredNetwork;
+
+/**
+ * Process-wide cache of the networks configured by the user. WifiManager.getConfiguredNetworks()
+ * is an expensive call into the system, while the list only changes when the user edits the saved
+ * networks (or when a network is enabled or disabled). The cache is invalidated by the system's
+ * CONFIGURED_NETWORKS_CHANGE broadcast, and refreshed periodically in case that broadcast is not
+ * delivered to us.
+ */
+
+public class ConfiguredNetworkCache {
+    // WifiManager.CONFIGURED_NETWORKS_CHANGED_ACTION, which is not part of the public API
+    private static final String CONFIGURED_NETWORKS_CHANGED_ACTION = "android.net.wifi.CONFIGURED_NETWORKS_CHANGE";
+    // Refresh the cache at least this often, even when no broadcast was received
+    private static final long MAX_AGE = 15 * 60 * 1000;
+
+    private static ConfiguredNetworkCache instance = null;
+
+    private final WifiManager wifiManager;
+    private List<ConfiguredNetwork> networks = null;
+    private long fetchTime = 0;
+    // Incremented every time the cache is invalidated
+    private long version = 0;
+
+    private final BroadcastReceiver changeReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context ctx, Intent intent) {
+            invalidate();
+        }
+    };
+
+    public static synchronized ConfiguredNetworkCache getInstance(Context ctx) {
+        if (instance == null) {
+            instance = new ConfiguredNetworkCache(ctx);
+        }
+        return instance;
+    }
+
+    private ConfiguredNetworkCache(Context ctx) {
+        // Use getApplicationContext(), since the receiver lives as long as our process
+        Context context = ctx.getApplicationContext();
+        wifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+        context.registerReceiver(changeReceiver, new IntentFilter(CONFIGURED_NETWORKS_CHANGED_ACTION));
+    }
+
+    /**
+     * Get the networks that are configured on this device
+     * @return a read-only list of networks, or null if the WifiManager did not return any
+     *          (which happens when Wi-Fi is disabled)
+     */
+    public synchronized List<ConfiguredNetwork> getNetworks() {
+        if (networks == null || SystemClock.elapsedRealtime() - fetchTime > MAX_AGE) {
+            Metrics.increment(Metrics.Counter.BINDER_CALLS);
+            List<WifiConfiguration> configurations = wifiManager.getConfiguredNetworks();
+            if (configurations == null)
+                return null; // Don't cache this, so we retry the next time
+            List<ConfiguredNetwork> snapshot = new ArrayList<>(configurations.size());
+            for (WifiConfiguration configuration : configurations)
+                snapshot.add(toConfiguredNetwork(configuration));
+            networks = Collections.unmodifiableList(snapshot);
+            fetchTime = SystemClock.elapsedRealtime();
+        }
+        return networks;
+    }
+
+    /**
+     * Take a snapshot of the parts of a WifiConfiguration that we need to decide on a network
+     */
+    private static ConfiguredNetwork toConfiguredNetwork(WifiConfiguration configuration) {
+        return new ConfiguredNetwork(configuration.networkId, normalizeSSID(configuration.SSID),
+                configuration.hiddenSSID, configuration.status != WifiConfiguration.Status.DISABLED);
+    }
+
+    /**
+     * Forget the cached networks, so they are fetched again the next time they are needed
+     */
+    public synchronized void invalidate() {
+        networks = null;
+        version++;
+    }
+
+    /**
+     * Get the current version of the cache, which changes every time the configured networks
+     * might have changed
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Convert the SSID of a WifiConfiguration to the form used in scan results. Configurations
+     * either contain the SSID in double quotes (") or, for SSIDs that are not valid UTF-8, as a
+     * string of hexadecimal digits.
+     * @param SSID the SSID as found in the WifiConfiguration
+     * @return the SSID without quotes, or null if it could not be converted
+     */
+    static String normalizeSSID(String SSID) {
+        if (SSID == null)
+            return null;
+        if (SSID.length() >= 2 && SSID.startsWith("\"") && SSID.endsWith("\""))
+            return SSID.substring(1, SSID.length() - 1);
+        if (SSID.length() == 0 || SSID.length() % 2 != 0)
+            return null;
+        byte[] bytes = new byte[SSID.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(SSID.charAt(2 * i), 16);
+            int low = Character.digit(SSID.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0)
+                return null;
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException uee) {
+            Logger.e("UTF-8 is not supported", uee);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package be.uhasselt.privacypolice;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.net.wifi.SupplicantState;
+import android.net.wifi.WifiManager;
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * Makes sure Android connects to a network after we enabled it. Devices running Android Lollipop
+ * (5.0) and up would otherwise never connect, and since wpa_supplicant 2.3 even asking to reconnect
+ * is sometimes not sufficient.
+ * Rather than polling, this follows the network and supplicant state broadcasts: it first asks the
+ * WifiManager to reconnect, and only escalates to reassociating when the supplicant does not make
+ * any progress in time. Each time it escalates, it waits twice as long, up to a bounded number of
+ * attempts.
+ * All methods must be called on the thread of the handler passed to the constructor.
+ */
+
+public class ConnectionStateMachine {
+    private enum State {
+        IDLE, RECONNECTING, REASSOCIATING
+    }
+
+    // Time to wait for progress after the first request, doubled after every attempt
+    private static final long INITIAL_TIMEOUT = 1000;
+    private static final int MAX_REASSOCIATE_ATTEMPTS = 3;
+    // Give up after this time, even if the supplicant keeps reporting progress
+    private static final long MAX_DURATION = 30 * 1000;
+
+    private final Context context;
+    private final Handler handler;
+    private final WifiManager wifiManager;
+    private final ConnectivityManager connectivityManager;
+
+    private State state = State.IDLE;
+    private int attempts = 0;
+    private long startTime = 0;
+
+    private final BroadcastReceiver stateReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context ctx, Intent intent) {
+            onStateChanged(intent);
+        }
+    };
+
+    private final Runnable timeout = new Runnable() {
+        @Override
+        public void run() {
+            onTimeout();
+        }
+    };
+
+    /**
+     * @param ctx The current context
+     * @param handler the handler on whose thread the state broadcasts will be handled
+     */
+    public ConnectionStateMachine(Context ctx, Handler handler) {
+        // Use getApplicationContext(), since our receiver outlives the caller
+        this.context = ctx.getApplicationContext();
+        this.handler = handler;
+        this.wifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+        this.connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    /**
+     * Make sure Android connects to one of the enabled networks. Does nothing if Wi-Fi is already
+     * connected, or if we are already trying to connect.
+     */
+    public void connect() {
+        if (state != State.IDLE)
+            return;
+        Metrics.increment(Metrics.Counter.BINDER_CALLS);
+        NetworkInfo wifiState = connectivityManager.getNetworkInfo(ConnectivityManager.TYPE_WIFI);
+        if (wifiState != null && wifiState.isConnected())
+            return;
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(WifiManager.NETWORK_STATE_CHANGED_ACTION);
+        filter.addAction(WifiManager.SUPPLICANT_STATE_CHANGED_ACTION);
+        context.registerReceiver(stateReceiver, filter, null, handler);
+
+        Logger.d("Asking WifiManager to reconnect");
+        state = State.RECONNECTING;
+        attempts = 0;
+        startTime = SystemClock.elapsedRealtime();
+        Metrics.increment(Metrics.Counter.BINDER_CALLS);
+        wifiManager.reconnect();
+        handler.postDelayed(timeout, INITIAL_TIMEOUT);
+    }
+
+    private void onStateChanged(Intent intent) {
+        if (state == State.IDLE)
+            return;
+        if (WifiManager.NETWORK_STATE_CHANGED_ACTION.equals(intent.getAction())) {
+            NetworkInfo networkInfo = intent.getParcelableExtra(WifiManager.EXTRA_NETWORK_INFO);
+            if (networkInfo == null)
+                return;
+            if (networkInfo.isConnected()) {
+                Logger.d("Connected after %d ms", SystemClock.elapsedRealtime() - startTime);
+                finish();
+            } else if (networkInfo.isConnectedOrConnecting()) {
+                onProgress();
+            }
+        } else if (WifiManager.SUPPLICANT_STATE_CHANGED_ACTION.equals(intent.getAction())) {
+            SupplicantState supplicantState = intent.getParcelableExtra(WifiManager.EXTRA_NEW_STATE);
+            if (isConnecting(supplicantState))
+                onProgress();
+        }
+    }
+
+    private static boolean isConnecting(SupplicantState supplicantState) {
+        if (supplicantState == null)
+            return false;
+        switch (supplicantState) {
+            case AUTHENTICATING:
+            case ASSOCIATING:
+            case ASSOCIATED:
+            case FOUR_WAY_HANDSHAKE:
+            case GROUP_HANDSHAKE:
+            case COMPLETED:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * The supplicant is working on a connection: give it the full time of the current attempt
+     */
+    private void onProgress() {
+        if (SystemClock.elapsedRealtime() - startTime > MAX_DURATION) {
+            Logger.w("Wi-Fi did not connect within %d ms, giving up", MAX_DURATION);
+            finish();
+            return;
+        }
+        handler.removeCallbacks(timeout);
+        handler.postDelayed(timeout, INITIAL_TIMEOUT << attempts);
+    }
+
+    /**
+     * No progress was made in time: escalate by reassociating
+     */
+    private void onTimeout() {
+        if (attempts >= MAX_REASSOCIATE_ATTEMPTS || SystemClock.elapsedRealtime() - startTime > MAX_DURATION) {
+            Logger.w("Wi-Fi did not connect after %d reassociations, giving up", attempts);
+            finish();
+            return;
+        }
+        attempts++;
+        if (state == State.RECONNECTING)
+            Logger.i("Reassociating, because WifiManager doesn't seem to be eager to reconnect.");
+        else
+            Logger.i("Still no progress after reassociating, trying again (attempt %d)", attempts);
+        state = State.REASSOCIATING;
+        Metrics.increment(Metrics.Counter.BINDER_CALLS);
+        wifiManager.reassociate();
+        handler.postDelayed(timeout, INITIAL_TIMEOUT << attempts);
+    }
+
+    private void finish() {
+        handler.removeCallbacks(timeout);
+        try {
+            context.unregisterReceiver(stateReceiver);
+        } catch (IllegalArgumentException iae) {
+            Logger.w("Connection state receiver was not registered");
+        }
+        state = State.IDLE;
+    }
+}
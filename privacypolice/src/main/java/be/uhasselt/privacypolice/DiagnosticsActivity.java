@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package be.uhasselt.privacypolice;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.os.Bundle;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
+import android.widget.TextView;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.text.DateFormat;
+import java.util.Date;
+
+/**
+ * Shows how much work PrivacyPolice did since it was started (see Metrics) and how much storage the
+ * known hotspots use, and allows exporting it as JSON, e.g. to attach it to a bug report about
+ * battery usage.
+ */
+public class DiagnosticsActivity extends Activity {
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_diagnostics);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        refresh();
+    }
+
+    private void refresh() {
+        TextView diagnosticsText = (TextView) findViewById(R.id.diagnostics_text);
+        PersistentTrustStore trustStore = PersistentTrustStore.getInstance(this);
+        long lastCompaction = trustStore.getLastCompactionTime();
+        String lastCompactionText = lastCompaction == 0 ? getString(R.string.diagnostics_never_compacted)
+                : DateFormat.getDateTimeInstance().format(new Date(lastCompaction));
+        String storageText = getString(R.string.diagnostics_trust_storage, trustStore.getDatabaseSize(),
+                lastCompactionText, trustStore.getReclaimedBytes());
+        diagnosticsText.setText(Metrics.format() + "\n" + storageText);
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        MenuInflater inflater = getMenuInflater();
+        inflater.inflate(R.menu.diagnostics, menu);
+        return super.onCreateOptionsMenu(menu);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.action_export_diagnostics:
+                exportDiagnostics();
+                return true;
+            case R.id.action_reset_diagnostics:
+                Metrics.reset();
+                refresh();
+                return true;
+            default:
+                return super.onOptionsItemSelected(item);
+        }
+    }
+
+    /**
+     * Share all metrics as JSON
+     */
+    private void exportDiagnostics() {
+        String json;
+        try {
+            JSONObject metrics = Metrics.toJSON();
+            PersistentTrustStore trustStore = PersistentTrustStore.getInstance(this);
+            JSONObject storage = new JSONObject();
+            storage.put("databaseBytes", trustStore.getDatabaseSize());
+            storage.put("lastCompactionMillis", trustStore.getLastCompactionTime());
+            storage.put("reclaimedBytes", trustStore.getReclaimedBytes());
+            metrics.put("trustStorage", storage);
+            json = metrics.toString(2);
+        } catch (JSONException jse) {
+            Logger.e("Could not convert metrics to JSON", jse);
+            return;
+        }
+        Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.setType("application/json");
+        intent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.export_diagnostics_subject));
+        intent.putExtra(Intent.EXTRA_TEXT, json);
+        startActivity(Intent.createChooser(intent, getString(R.string.export_diagnostics)));
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package be.uhasselt.privacypolice;
+
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.widget.Toast;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import be.uhasselt.privacypolice.policy.TrustListReader;
+
+/**
+ * Imports a list of trusted and blocked hotspots (see TrustListFormat), after asking the user for
+ * confirmation. Other apps (e.g. device management tools) can start this activity with
+ * ACTION_IMPORT_TRUST_LIST and the content URI of a list, to provision many devices with the same
+ * hotspots. Since importing a list changes which networks we connect to, it is never done without
+ * the user's consent.
+ */
+
+public class ImportTrustListActivity extends Activity {
+    public static final String ACTION_IMPORT_TRUST_LIST = "be.uhasselt.privacypolice.action.IMPORT_TRUST_LIST";
+    private static final String IMPORT_STARTED_KEY = "importStarted";
+
+    // Whether the user confirmed, so the list is (being) imported already
+    private boolean importStarted = false;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        // When the activity is recreated (e.g. after rotating the screen), only ask again if the
+        // user did not confirm yet, so the list is never imported twice
+        if (savedInstanceState != null && savedInstanceState.getBoolean(IMPORT_STARTED_KEY)) {
+            finish();
+            return;
+        }
+
+        final Uri uri = getIntent().getData();
+        if (uri == null) {
+            Logger.e("No trust list was passed to import");
+            finish();
+            return;
+        }
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setMessage(R.string.dialog_importhotspots);
+        builder.setPositiveButton(R.string.dialog_importhotspots_yes, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                importStarted = true;
+                new ImportTask(ImportTrustListActivity.this).execute(uri);
+                // The task reports the result itself, so there is nothing left to show
+                finish();
+            }
+        });
+        builder.setNegativeButton(R.string.dialog_importhotspots_no, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                finish();
+            }
+        });
+        builder.setOnCancelListener(new DialogInterface.OnCancelListener() {
+            @Override
+            public void onCancel(DialogInterface dialog) {
+                finish();
+            }
+        });
+        builder.show();
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBoolean(IMPORT_STARTED_KEY, importStarted);
+    }
+
+    /**
+     * Reads the list and stores its hotspots, away from the main thread
+     */
+    private static class ImportTask extends AsyncTask<Uri, Void, Integer> {
+        private final Context context;
+
+        ImportTask(Context ctx) {
+            // Use getApplicationContext(), since the task outlives the activity
+            this.context = ctx.getApplicationContext();
+        }
+
+        @Override
+        protected Integer doInBackground(Uri... uris) {
+            try {
+                InputStream input = context.getContentResolver().openInputStream(uris[0]);
+                if (input == null)
+                    throw new IOException("Could not open " + uris[0]);
+                try {
+                    TrustListReader reader = new TrustListReader(new InputStreamReader(input, "UTF-8"));
+                    return PersistentTrustStore.getInstance(context).importTrustList(reader);
+                } finally {
+                    input.close();
+                }
+            } catch (IOException ioe) {
+                Logger.e("Could not import trust list", ioe);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Integer importedCount) {
+            if (importedCount == null) {
+                Toast.makeText(context, R.string.import_hotspots_failed, Toast.LENGTH_LONG).show();
+            } else {
+                Toast.makeText(context, context.getString(R.string.import_hotspots_done, importedCount),
+                        Toast.LENGTH_LONG).show();
+                // Check the networks in range against the new hotspots
+                ScanRequestBroker.getInstance(context).requestScan(ScanRequestBroker.Priority.PREFERENCE);
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package be.uhasselt.privacypolice;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations, with one bucket per power of two microseconds. Recording a
+ * duration costs a few atomic increments, so it can be used on the scan path. Percentiles are
+ * estimated as the upper bound of the bucket they fall in.
+ */
+
+public class LatencyHistogram {
+    // Bucket i holds durations of less than 2^i microseconds (and at least 2^(i-1)); the last
+    // bucket holds everything that is longer
+    private static final int BUCKETS = 26;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * @param nanos the duration to record, in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = Math.max(nanos / 1000, 0);
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalMicros.addAndGet(micros);
+        long max = maxMicros.get();
+        while (micros > max && !maxMicros.compareAndSet(max, micros))
+            max = maxMicros.get();
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotalMicros() {
+        return totalMicros.get();
+    }
+
+    public long getMaxMicros() {
+        return maxMicros.get();
+    }
+
+    /**
+     * Estimate a percentile of the recorded durations
+     * @param percentile the percentile, between 0 and 100
+     * @return an upper bound of the percentile, in microseconds, or 0 if nothing was recorded
+     */
+    public long getPercentileMicros(int percentile) {
+        long total = count.get();
+        if (total == 0)
+            return 0;
+        long rank = (total * percentile + 99) / 100;
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS - 1; bucket++) {
+            seen += buckets.get(bucket);
+            if (seen >= rank)
+                return Math.min(1L << bucket, getMaxMicros());
+        }
+        return getMaxMicros();
+    }
+
+    public void reset() {
+        for (int bucket = 0; bucket < BUCKETS; bucket++)
+            buckets.set(bucket, 0);
+        count.set(0);
+        totalMicros.set(0);
+        maxMicros.set(0);
+    }
+}
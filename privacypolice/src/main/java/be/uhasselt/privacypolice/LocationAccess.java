@@ -7,39 +7,74 @@ import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.location.LocationManager;
 import android.support.v4.content.ContextCompat;
-import android.util.Log;
 
 /**
  * Used in Android 6.0 and up, because Location provider needs to be enabled in order to receive
  * Wi-Fi scan results programmatically.
+ * Whether location access is enabled is cached for the whole process, and only checked again when
+ * the location providers change, on boot, and when our permission might have changed. Revoking a
+ * runtime permission kills our process, which clears the cache as well.
  */
 public class LocationAccess extends BroadcastReceiver {
+    // Cached result of the last check, or null if we did not check yet
+    private static volatile Boolean networkLocationEnabled = null;
+    // The state that the location notification currently reflects, or null if it was never updated
+    private static Boolean notifiedState = null;
+
     public static boolean isNetworkLocationEnabled(Context context) {
+        Boolean enabled = networkLocationEnabled;
+        if (enabled == null) {
+            enabled = queryNetworkLocationEnabled(context);
+            networkLocationEnabled = enabled;
+        }
+        return enabled;
+    }
+
+    private static boolean queryNetworkLocationEnabled(Context context) {
         if (android.os.Build.VERSION.SDK_INT < 23) {
             // Location access is not needed on Android versions < 6.0
             // See https://code.google.com/p/android/issues/detail?id=185370 for more information
             return true;
         }
         if (ContextCompat.checkSelfPermission(context, Manifest.permission.ACCESS_COARSE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
-            Log.e("PrivacyPolice", "I don't seem to have the correct runtime permission!");
+            Logger.e("I don't seem to have the correct runtime permission!");
             return false;
         }
         LocationManager locationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
         return locationManager.isProviderEnabled(LocationManager.NETWORK_PROVIDER);
     }
 
+    /**
+     * Check location access again (e.g. after our permission changed), and update the
+     * notification if needed
+     */
+    public static void refresh(Context context) {
+        networkLocationEnabled = queryNetworkLocationEnabled(context);
+        checkAccessDisplayNotification(context);
+    }
+
     /**
      * Called for intent location.PROVIDERS_CHANGED, BOOT_COMPLETED
      */
     @Override
     public void onReceive(Context context, Intent intent) {
-        checkAccessDisplayNotification(context);
+        refresh(context);
     }
 
+    /**
+     * Show or remove the notification asking for location access. The notification is only touched
+     * when location access was enabled or disabled since the last call.
+     */
     public static void checkAccessDisplayNotification(Context context) {
-        NotificationHandler notificationHandler = new NotificationHandler(context);
+        boolean enabled = isNetworkLocationEnabled(context);
+        synchronized (LocationAccess.class) {
+            if (notifiedState != null && notifiedState == enabled)
+                return;
+            notifiedState = enabled;
+        }
 
-        if (!isNetworkLocationEnabled(context)) {
+        NotificationHandler notificationHandler = new NotificationHandler(context);
+        if (!enabled) {
             notificationHandler.askLocationPermission();
         } else {
             // Make sure no location permission request is shown
@@ -12,7 +12,6 @@ import android.preference.PreferenceFragment;
 import android.provider.Settings;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
-import android.util.Log;
 import android.view.View;
 
 /**
@@ -36,6 +35,16 @@ public class LocationNoticeActivity extends Activity{
         fragmentTransaction.commit();
     }
 
+    /**
+     * The user might have granted our permission in the app settings, in which case we are not
+     * notified. Check location access again when coming back to this activity.
+     */
+    @Override
+    protected void onResume() {
+        super.onResume();
+        LocationAccess.refresh(this);
+    }
+
     public void checkAndRequestSettings(View view) {
         // First, check if we need to request the location permission
         if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_COARSE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
@@ -64,12 +73,16 @@ public class LocationNoticeActivity extends Activity{
     @Override
     public void onRequestPermissionsResult(int requestCode, String permissions[], int[] grantResults) {
         if (requestCode != PERMISSION_REQUEST_CODE) {
-            Log.e("PrivacyPolice", "Permissions result with unexpected request code: " + requestCode);
+            Logger.e("Permissions result with unexpected request code: %s", requestCode);
             return;
         }
 
+        // Our permission might have changed: check location access again, and update the
+        // notification if needed
+        LocationAccess.refresh(this);
+
         if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_COARSE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
-            Log.i("PrivacyPolice", "User denied location access");
+            Logger.i("User denied location access");
             // Let the user enable this permission through the settings, because he may have ticked
             // the 'do not ask me again' box.
             openAppSettings();
@@ -79,8 +92,6 @@ public class LocationNoticeActivity extends Activity{
                 openLocationSettings();
             }
         }
-        // Re-check if notification should be displayed
-        LocationAccess.checkAccessDisplayNotification(this);
     }
 
     /**
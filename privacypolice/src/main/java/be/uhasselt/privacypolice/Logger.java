@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package be.uhasselt.privacypolice;
+
+import android.util.Log;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Logging facade used throughout PrivacyPolice. Messages take String.format()-style parameters,
+ * which are only formatted when the message's level is enabled, so logging on the scan path costs
+ * next to nothing unless the user turned on debug logging.
+ * Enabled messages are passed on to logcat, and kept in a fixed-size in-memory ring buffer, which
+ * can be exported from the preferences screen for debugging in the field.
+ */
+
+public final class Logger {
+    private static final String TAG = "PrivacyPolice";
+    // Number of messages kept in memory
+    private static final int BUFFER_SIZE = 500;
+    // Longer messages are cut off before they are stored
+    private static final int MAX_MESSAGE_LENGTH = 1000;
+    // Maximum length of a dump, so it can be shared through an intent without exceeding the
+    // binder transaction limit (about 1 MB, and a character takes two bytes)
+    private static final int MAX_DUMP_LENGTH = 128 * 1024;
+
+    private static final long[] times = new long[BUFFER_SIZE];
+    private static final int[] levels = new int[BUFFER_SIZE];
+    private static final String[] messages = new String[BUFFER_SIZE];
+    // Index at which the next message will be stored, and number of messages stored
+    private static int nextIndex = 0;
+    private static int count = 0;
+
+    // Messages below this level (see android.util.Log) are dropped without being formatted
+    private static volatile int minLevel = Log.INFO;
+
+    private Logger() {
+    }
+
+    /**
+     * Enable or disable the logging of verbose and debug messages
+     */
+    public static void setDebugEnabled(boolean enabled) {
+        minLevel = enabled ? Log.VERBOSE : Log.INFO;
+    }
+
+    public static boolean isLoggable(int level) {
+        return level >= minLevel;
+    }
+
+    public static void v(String format, Object... args) {
+        if (isLoggable(Log.VERBOSE))
+            Log.v(TAG, store(Log.VERBOSE, format, args));
+    }
+
+    public static void d(String format, Object... args) {
+        if (isLoggable(Log.DEBUG))
+            Log.d(TAG, store(Log.DEBUG, format, args));
+    }
+
+    public static void i(String format, Object... args) {
+        if (isLoggable(Log.INFO))
+            Log.i(TAG, store(Log.INFO, format, args));
+    }
+
+    public static void w(String format, Object... args) {
+        if (isLoggable(Log.WARN))
+            Log.w(TAG, store(Log.WARN, format, args));
+    }
+
+    public static void e(String format, Object... args) {
+        if (isLoggable(Log.ERROR))
+            Log.e(TAG, store(Log.ERROR, format, args));
+    }
+
+    public static void e(String message, Throwable throwable) {
+        if (isLoggable(Log.ERROR))
+            Log.e(TAG, store(Log.ERROR, message + ": " + throwable), throwable);
+    }
+
+    /**
+     * Format a message, and add it to the ring buffer
+     * @return the formatted message
+     */
+    private static String store(int level, String format, Object... args) {
+        String message = args.length == 0 ? format : String.format(Locale.US, format, args);
+        String storedMessage = message.length() <= MAX_MESSAGE_LENGTH ? message
+                : message.substring(0, MAX_MESSAGE_LENGTH) + "... (" + message.length() + " characters)";
+        synchronized (Logger.class) {
+            times[nextIndex] = System.currentTimeMillis();
+            levels[nextIndex] = level;
+            messages[nextIndex] = storedMessage;
+            nextIndex = (nextIndex + 1) % BUFFER_SIZE;
+            if (count < BUFFER_SIZE)
+                count++;
+        }
+        return message;
+    }
+
+    /**
+     * Get the messages in the ring buffer, oldest first, one per line. When they do not all fit in
+     * MAX_DUMP_LENGTH characters, only the most recent ones are included.
+     */
+    public static String dump() {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+        List<String> lines = new ArrayList<>();
+        int length = 0;
+        int omitted = 0;
+        synchronized (Logger.class) {
+            // Go from the newest message to the oldest, so the newest ones are kept
+            int index = (nextIndex - 1 + BUFFER_SIZE) % BUFFER_SIZE;
+            for (int i = 0; i < count; i++) {
+                String line = dateFormat.format(new Date(times[index])) + ' ' + getLevelLetter(levels[index])
+                        + ' ' + messages[index] + '\n';
+                if (length + line.length() > MAX_DUMP_LENGTH) {
+                    omitted = count - i;
+                    break;
+                }
+                lines.add(line);
+                length += line.length();
+                index = (index - 1 + BUFFER_SIZE) % BUFFER_SIZE;
+            }
+        }
+        StringBuilder dump = new StringBuilder(length + 64);
+        if (omitted > 0)
+            dump.append("(").append(omitted).append(" older messages omitted)\n");
+        for (int i = lines.size() - 1; i >= 0; i--)
+            dump.append(lines.get(i));
+        return dump.toString();
+    }
+
+    private static char getLevelLetter(int level) {
+        switch (level) {
+            case Log.VERBOSE:
+                return 'V';
+            case Log.DEBUG:
+                return 'D';
+            case Log.INFO:
+                return 'I';
+            case Log.WARN:
+                return 'W';
+            default:
+                return 'E';
+        }
+    }
+}
@@ -23,13 +23,15 @@ import android.app.AlertDialog;
 import android.content.DialogInterface;
 import android.net.wifi.ScanResult;
 import android.os.Bundle;
-import android.util.Log;
 import android.view.View;
 import android.widget.ListView;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
+
+import be.uhasselt.privacypolice.policy.AccessPointSafety;
+import be.uhasselt.privacypolice.policy.BSSIDCodec;
+import be.uhasselt.privacypolice.policy.LongHashSet;
 
 /**
  * Activity that allows the user to view and modify the stored list of allowed / blocked MAC
@@ -43,7 +45,7 @@ public class MACManagerActivity extends NetworkManagerActivity {
         super.onCreate(savedInstanceState);
 
         SSID = getIntent().getStringExtra("SSID");
-        Log.v("PrivacyPolice", "Creating MAC manager activity for network " + SSID);
+        Logger.v("Creating MAC manager activity for network %s", SSID);
         setTitle(SSID);
 
         adapter = new MACManagerAdapter();
@@ -61,7 +63,7 @@ public class MACManagerActivity extends NetworkManagerActivity {
     protected void onListItemClick(ListView listView, View view, int position, long id) {
         final NetworkAvailability listItem = (NetworkAvailability) listView.getItemAtPosition(position);
         final String mac = listItem.getName();
-        Log.v("PrivacyPolice", "Asking for confirmation to remove mac " + mac + " for network " + SSID);
+        Logger.v("Asking for confirmation to remove mac %s for network %s", mac, SSID);
         // Ask for confirmation first
         AlertDialog.Builder builder = new AlertDialog.Builder(this);
         builder.setMessage(String.format(getResources().getString(R.string.dialog_removetrustedmac), mac));
@@ -69,7 +71,7 @@ public class MACManagerActivity extends NetworkManagerActivity {
             public void onClick(DialogInterface dialog, int id) {
                 // Actually remove the BSSID from the 'trusted' list
                 PreferencesStorage prefs = new PreferencesStorage(MACManagerActivity.this);
-                if (listItem.getAccessPointSafety() == ScanResultsChecker.AccessPointSafety.TRUSTED)
+                if (listItem.getAccessPointSafety() == AccessPointSafety.TRUSTED)
                     prefs.removeAllowedBSSID(SSID, mac);
                 else
                     prefs.removeBlockedBSSID(SSID, mac);
@@ -119,36 +121,38 @@ public class MACManagerActivity extends NetworkManagerActivity {
 
     protected class MACManagerAdapter extends NetworkManagerAdapter {
         public void refresh() {
-            Log.v("PrivacyPolice", "Refreshing the SSID list adapter");
+            Logger.v("Refreshing the SSID list adapter");
             // Use an ArrayMap so we can put available access points at the top
             networkList = new ArrayList<>();
 
             // Combine the access points that we know of with the access points that are available.
             List<ScanResult> scanResults = wifiManager.getScanResults();
 
-            Set<String> trustedMACs = prefs.getAllowedBSSIDs(getSSID());
+            // Keep track of the access points we already listed, so they are only added once
+            LongHashSet listedMACs = new LongHashSet();
             // Add currently available access points that we trust to the list
             for (ScanResult scanResult : scanResults) {
-                if (trustedMACs.contains(scanResult.BSSID)) {
-                    networkList.add(new NetworkAvailability(scanResult.BSSID, scanResult.level, ScanResultsChecker.AccessPointSafety.TRUSTED));
-                    trustedMACs.remove(scanResult.BSSID);
+                long MAC = BSSIDCodec.parse(scanResult.BSSID);
+                if (MAC != BSSIDCodec.INVALID && prefs.isAllowedBSSID(getSSID(), MAC) && listedMACs.add(MAC)) {
+                    networkList.add(new NetworkAvailability(scanResult.BSSID, scanResult.level, AccessPointSafety.TRUSTED));
                 }
             }
-            Set<String> blockedMACs = prefs.getBlockedBSSIDs(getSSID());
             // Add currently available access points that we block to the list
             for (ScanResult scanResult : scanResults) {
-                if (blockedMACs.contains(scanResult.BSSID)) {
-                    networkList.add(new NetworkAvailability(scanResult.BSSID, scanResult.level, ScanResultsChecker.AccessPointSafety.UNTRUSTED));
-                    blockedMACs.remove(scanResult.BSSID);
+                long MAC = BSSIDCodec.parse(scanResult.BSSID);
+                if (MAC != BSSIDCodec.INVALID && prefs.isBlockedBSSID(getSSID(), MAC) && listedMACs.add(MAC)) {
+                    networkList.add(new NetworkAvailability(scanResult.BSSID, scanResult.level, AccessPointSafety.UNTRUSTED));
                 }
             }
 
-            // Add all other (non-available) saved SSIDs to the list
-            for (String MAC : trustedMACs) {
-                networkList.add(new NetworkAvailability(MAC, -99999, ScanResultsChecker.AccessPointSafety.TRUSTED));
+            // Add all other (non-available) saved access points to the list
+            for (long MAC : prefs.getAllowedBSSIDs(getSSID())) {
+                if (listedMACs.add(MAC))
+                    networkList.add(new NetworkAvailability(BSSIDCodec.format(MAC), -99999, AccessPointSafety.TRUSTED));
             }
-            for (String MAC : blockedMACs) {
-                networkList.add(new NetworkAvailability(MAC, -99999, ScanResultsChecker.AccessPointSafety.UNTRUSTED));
+            for (long MAC : prefs.getBlockedBSSIDs(getSSID())) {
+                if (listedMACs.add(MAC))
+                    networkList.add(new NetworkAvailability(BSSIDCodec.format(MAC), -99999, AccessPointSafety.UNTRUSTED));
             }
 
             notifyDataSetChanged();
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package be.uhasselt.privacypolice;
+
+import android.os.SystemClock;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms for the work PrivacyPolice does in the background, so that its
+ * cost (in time and in calls into the system) can be seen on the diagnostics screen. Metrics are
+ * kept in memory, and start from zero every time our process is started.
+ */
+
+public final class Metrics {
+    public enum Counter {
+        BROADCASTS_RECEIVED, // Scan result broadcasts
+        BROADCASTS_COALESCED, // Broadcasts that were covered by the check of a later one
+        EVALUATIONS_RUN,
+        EVALUATIONS_SKIPPED, // Scan results did not change since the previous evaluation
+        SCANS_REQUESTED,
+        SCANS_DEFERRED, // Scan requests that had to wait for scan budget
+        BINDER_CALLS, // Calls into the WifiManager and ConnectivityManager
+        PROMPTS_SHOWN,
+        TRUST_WRITES_QUEUED, // Changes to the trusted access points
+        TRUST_FLUSHES, // Transactions in which those changes were written
+        TRUST_COMPACTIONS,
+        TRUST_BYTES_RECLAIMED, // By compacting the trust database
+        TRUST_EVICTIONS // Access points that were forgotten because they were not seen for long
+    }
+
+    public enum Stage {
+        SCAN_FETCH, // Getting the scan results from the WifiManager
+        NETWORK_FETCH, // Getting the configured networks
+        DECISION, // Deciding on every network
+        WIFI_COMMANDS, // Enabling and disabling networks
+        EVALUATION, // All of the above
+        TRUST_FLUSH, // Writing changes to the trusted access points
+        TRUST_COMPACTION
+    }
+
+    private static final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+    private static final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+    // Time (in SystemClock.elapsedRealtime()) since which the metrics were collected
+    private static volatile long startTime = SystemClock.elapsedRealtime();
+
+    static {
+        for (int i = 0; i < histograms.length; i++)
+            histograms[i] = new LatencyHistogram();
+    }
+
+    private Metrics() {
+    }
+
+    public static void increment(Counter counter) {
+        counters.incrementAndGet(counter.ordinal());
+    }
+
+    public static void add(Counter counter, long amount) {
+        counters.addAndGet(counter.ordinal(), amount);
+    }
+
+    public static long get(Counter counter) {
+        return counters.get(counter.ordinal());
+    }
+
+    /**
+     * @return the time to pass to record() once the stage is finished
+     */
+    public static long startTimer() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record the duration of a stage
+     * @param stage the stage that was finished
+     * @param startTime the value returned by startTimer() when the stage started
+     */
+    public static void record(Stage stage, long startTime) {
+        histograms[stage.ordinal()].record(System.nanoTime() - startTime);
+    }
+
+    public static void reset() {
+        for (int i = 0; i < counters.length(); i++)
+            counters.set(i, 0);
+        for (LatencyHistogram histogram : histograms)
+            histogram.reset();
+        startTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Get all metrics as a JSON object, with durations in microseconds
+     */
+    public static JSONObject toJSON() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("collectedForMillis", SystemClock.elapsedRealtime() - startTime);
+        JSONObject counterJSON = new JSONObject();
+        for (Counter counter : Counter.values())
+            counterJSON.put(counter.name(), get(counter));
+        json.put("counters", counterJSON);
+        JSONObject stageJSON = new JSONObject();
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = histograms[stage.ordinal()];
+            JSONObject histogramJSON = new JSONObject();
+            histogramJSON.put("count", histogram.getCount());
+            histogramJSON.put("totalMicros", histogram.getTotalMicros());
+            histogramJSON.put("p50Micros", histogram.getPercentileMicros(50));
+            histogramJSON.put("p90Micros", histogram.getPercentileMicros(90));
+            histogramJSON.put("p99Micros", histogram.getPercentileMicros(99));
+            histogramJSON.put("maxMicros", histogram.getMaxMicros());
+            stageJSON.put(stage.name(), histogramJSON);
+        }
+        json.put("latencies", stageJSON);
+        return json;
+    }
+
+    /**
+     * Get all metrics in a human-readable form, one per line
+     */
+    public static String format() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format(Locale.US, "Collected for %d minutes\n\n",
+                (SystemClock.elapsedRealtime() - startTime) / (60 * 1000)));
+        for (Counter counter : Counter.values())
+            text.append(String.format(Locale.US, "%s: %d\n", counter.name(), get(counter)));
+        text.append('\n');
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = histograms[stage.ordinal()];
+            long count = histogram.getCount();
+            text.append(String.format(Locale.US, "%s: %d times, avg %d µs, p90 %d µs, max %d µs\n",
+                    stage.name(), count, count == 0 ? 0 : histogram.getTotalMicros() / count,
+                    histogram.getPercentileMicros(90), histogram.getMaxMicros()));
+        }
+        return text.toString();
+    }
+}
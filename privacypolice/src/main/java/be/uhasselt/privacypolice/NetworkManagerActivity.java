@@ -23,7 +23,6 @@ import android.app.ListActivity;
 import android.content.Context;
 import android.net.wifi.WifiManager;
 import android.os.Bundle;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -37,6 +36,8 @@ import android.widget.TextView;
 
 import java.util.ArrayList;
 
+import be.uhasselt.privacypolice.policy.AccessPointSafety;
+
 /**
  * Activity that allows the user to view and modify the stored list of allowed / blocked networks.
  * This activity contains only a list of the networks, and the option (in the menu) to remove
@@ -92,7 +93,7 @@ public abstract class NetworkManagerActivity extends ListActivity {
      * combining them with networks stored in the preferences.
      */
     public void refresh() {
-        adapter.refresh();
+        adapter.update();
     }
 
     /**
@@ -120,7 +121,21 @@ public abstract class NetworkManagerActivity extends ListActivity {
             layoutInflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
 
             // Creating the list for the first time
-            refresh();
+            networkList = new ArrayList<>();
+            update();
+        }
+
+        /**
+         * Refresh the list as soon as the known access points are loaded, without blocking the
+         * main thread until then. The list stays empty in the meantime.
+         */
+        public void update() {
+            prefs.runWhenTrustListsLoaded(new Runnable() {
+                @Override
+                public void run() {
+                    refresh();
+                }
+            });
         }
 
         /**
@@ -167,12 +182,19 @@ public abstract class NetworkManagerActivity extends ListActivity {
             NetworkAvailability SSIDinfo = (NetworkAvailability) getItem(position);
             TextView SSIDtext = (TextView) layout.findViewById(R.id.SSIDname);
             SSIDtext.setText(SSIDinfo.getName());
+            TextView detailsText = (TextView) layout.findViewById(R.id.details);
+            if (SSIDinfo.getDetails() == null) {
+                detailsText.setVisibility(View.GONE);
+            } else {
+                detailsText.setText(SSIDinfo.getDetails());
+                detailsText.setVisibility(View.VISIBLE);
+            }
             // Make the 'signal strength' icon visible if the network is available
             ImageView signalStrengthImage = (ImageView) layout.findViewById(R.id.signalStrength);
-            Log.v("PrivacyPolice", "Adding network " + SSIDinfo.getName() + " with signal strength " + SSIDinfo.getSignalStrength());
+            Logger.v("Adding network %s with signal strength %s", SSIDinfo.getName(), SSIDinfo.getSignalStrength());
             // Color signal strength teal (if trusted) or pink (if blocked)
             String color = "teal";
-            if (SSIDinfo.getAccessPointSafety() == ScanResultsChecker.AccessPointSafety.UNTRUSTED)
+            if (SSIDinfo.getAccessPointSafety() == AccessPointSafety.UNTRUSTED)
                 color = "pink";
             String resourceName = "ic_wifi_signal_" + SSIDinfo.getSignalStrength() + "_" + color;
             if (SSIDinfo.getSignalStrength() == -1)
@@ -191,9 +213,11 @@ public abstract class NetworkManagerActivity extends ListActivity {
     protected class NetworkAvailability {
         private String name;
         private int signalStrength;
-        private ScanResultsChecker.AccessPointSafety accessPointSafety;
+        private AccessPointSafety accessPointSafety;
+        // Extra information shown below the name, or null if there is none
+        private String details = null;
 
-        public NetworkAvailability(String name, int rssi, ScanResultsChecker.AccessPointSafety accessPointSafety) {
+        public NetworkAvailability(String name, int rssi, AccessPointSafety accessPointSafety) {
             this.setName(name);
             this.setSignalStrength(rssi);
             this.setAccessPointSafety(accessPointSafety);
@@ -224,12 +248,20 @@ public abstract class NetworkManagerActivity extends ListActivity {
             }
         }
 
-        public ScanResultsChecker.AccessPointSafety getAccessPointSafety() {
+        public AccessPointSafety getAccessPointSafety() {
             return accessPointSafety;
         }
 
-        public void setAccessPointSafety(ScanResultsChecker.AccessPointSafety accessPointSafety) {
+        public void setAccessPointSafety(AccessPointSafety accessPointSafety) {
             this.accessPointSafety = accessPointSafety;
         }
+
+        public String getDetails() {
+            return details;
+        }
+
+        public void setDetails(String details) {
+            this.details = details;
+        }
     }
 }
@@ -24,52 +24,147 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.content.res.Resources;
+import android.net.Uri;
 import android.support.v4.app.NotificationCompat;
-import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import be.uhasselt.privacypolice.policy.BSSIDCodec;
+import be.uhasselt.privacypolice.policy.PermissionPrompt;
 
 /**
  * Class used to show notifications to the user, and to ask permissions
  */
 public class NotificationHandler {
+    // Id of the notification summarizing all network permission requests (on Android 7.0 and up)
     public static final int PERMISSION_NOTIFICATION_ID = 0;
     public static final int LOCATION_NOTIFICATION_ID = 81;
+    private static final String PERMISSION_GROUP = "networkPermissions";
+    // Preferences file in which we remember which networks we are asking permission for, so that
+    // we can remove their notifications when our process was restarted in the meantime
+    private static final String PROMPT_STATE_FILE = "prompts";
+    private static final String PROMPT_STATE_KEY = "shownSSIDs";
+    // Notification ids of the permission requests are handed out in order, and remembered (in the
+    // same file) for as long as the request is shown
+    private static final String NOTIFICATION_ID_PREFIX = "notificationId//";
+    private static final String NEXT_NOTIFICATION_ID_KEY = "nextNotificationId";
+    // Set once the single permission request of older versions was removed
+    private static final String LEGACY_NOTIFICATION_CANCELLED_KEY = "legacyNotificationCancelled";
+    // Keep clear of the ids of our other notifications
+    private static final int FIRST_PROMPT_NOTIFICATION_ID = 0x40000000;
 
     private Context context = null;
     private NotificationManager notificationManager = null;
 
+    // The permission requests that are currently shown, by SSID (shared by all instances of this
+    // class), so that we don't rebuild and re-post the same notifications on every scan.
+    // Null until it is first needed in this process.
+    private static Map<String, PermissionPrompt> shownPrompts = null;
+
     NotificationHandler(Context ctx) {
         this.context = ctx;
         notificationManager = (NotificationManager) ctx.getSystemService(Context.NOTIFICATION_SERVICE);
     }
 
     /**
-     * Disables all currently displayed network permissions notifications by PrivacyPolice. This
-     * allows us to remove stale networks.
+     * Asks the user whether it is certain that the given networks should be currently available.
+     * Every network gets its own notification (with its own actions), so all of them can be
+     * answered at once. On Android 7.0 and up, they are bundled in a single group. Notifications
+     * for networks that are no longer in the list are removed, and notifications that did not
+     * change are left alone.
+     * @param prompts The networks to ask permission for
      */
-    public void disableNetworkNotifications() {
-        notificationManager.cancel(PERMISSION_NOTIFICATION_ID);
+    public void showNetworkPermissions(List<PermissionPrompt> prompts) {
+        // Show the strongest networks first
+        List<PermissionPrompt> sortedPrompts = new ArrayList<>(prompts);
+        Collections.sort(sortedPrompts, new Comparator<PermissionPrompt>() {
+            @Override
+            public int compare(PermissionPrompt first, PermissionPrompt second) {
+                return second.level < first.level ? -1 : (second.level == first.level ? 0 : 1);
+            }
+        });
+
+        synchronized (NotificationHandler.class) {
+            Map<String, PermissionPrompt> previousPrompts = getShownPrompts();
+            Map<String, PermissionPrompt> newPrompts = new LinkedHashMap<>();
+            boolean changed = false;
+            for (int rank = 0; rank < sortedPrompts.size(); rank++) {
+                PermissionPrompt prompt = sortedPrompts.get(rank);
+                if (newPrompts.containsKey(prompt.SSID))
+                    continue;
+                newPrompts.put(prompt.SSID, prompt);
+                PermissionPrompt shownPrompt = previousPrompts.get(prompt.SSID);
+                if (shownPrompt != null && shownPrompt.BSSID == prompt.BSSID)
+                    continue; // Already asking for this network
+                askNetworkPermission(prompt, rank);
+                changed = true;
+            }
+            for (String SSID : previousPrompts.keySet()) {
+                if (!newPrompts.containsKey(SSID)) {
+                    notificationManager.cancel(getNotificationId(SSID));
+                    releaseNotificationId(SSID);
+                    changed = true;
+                }
+            }
+            if (!changed)
+                return;
+            shownPrompts = newPrompts;
+            updateSummary();
+            saveShownPrompts();
+        }
     }
 
     /**
-     * Asks the user whether it is certain that a network should be currently available
-     * @param SSID The name of the network
-     * @param BSSID The MAC address of the access point that triggered this (only used when we will block the AP)
+     * Get the access points we are currently asking permission for, so the policy engine can keep
+     * asking about the same ones
+     * @return the BSSIDs of the access points, by SSID
      */
-    public void askNetworkPermission(String SSID, String BSSID) {
-        Log.d("PrivacyPolice", "Asking permission for " + SSID + " (" + BSSID + ")");
+    public Map<String, Long> getShownBSSIDs() {
+        synchronized (NotificationHandler.class) {
+            Map<String, Long> BSSIDs = new HashMap<>();
+            for (PermissionPrompt prompt : getShownPrompts().values())
+                BSSIDs.put(prompt.SSID, prompt.BSSID);
+            return BSSIDs;
+        }
+    }
+
+    /**
+     * Build and post the notification asking permission for a single network
+     * @param prompt The network to ask permission for
+     * @param rank The position of the network when sorted by signal strength
+     */
+    private void askNetworkPermission(PermissionPrompt prompt, int rank) {
+        String SSID = prompt.SSID;
+        String BSSID = BSSIDCodec.format(prompt.BSSID);
+        Logger.d("Asking permission for %s (%s)", SSID, BSSID);
         // Intent that will be used when the user allows the network
-        Intent addIntent = new Intent(context, PermissionChangeReceiver.class);
+        Intent addIntent = createPermissionIntent(SSID, "allow");
         addIntent.putExtra("SSID", SSID).putExtra("BSSID", BSSID).putExtra("enable", true);
         PendingIntent addPendingIntent = PendingIntent.getBroadcast(context, 0, addIntent, PendingIntent.FLAG_CANCEL_CURRENT);
         // Intent that will be used when the user blocks the network
-        Intent disableIntent = new Intent(context, PermissionChangeReceiver.class);
+        Intent disableIntent = createPermissionIntent(SSID, "block");
         disableIntent.putExtra("SSID", SSID).putExtra("BSSID", BSSID).putExtra("enable", false);
         PendingIntent disablePendingIntent = PendingIntent.getBroadcast(context, 1, disableIntent, PendingIntent.FLAG_CANCEL_CURRENT);
         // Intent that will be used when the user's OS does not support notification actions
         Intent activityIntent = new Intent(context, AskPermissionActivity.class);
+        activityIntent.setData(Uri.fromParts("privacypolice", SSID, "ask"));
         activityIntent.putExtra("SSID", SSID).putExtra("BSSID", BSSID);
         PendingIntent activityPendingIntent = PendingIntent.getActivity(context, 2, activityIntent, PendingIntent.FLAG_CANCEL_CURRENT);
+        // Intent that will be used when the user dismisses the notification, so we ask again later
+        Intent dismissIntent = createPermissionIntent(SSID, "dismiss");
+        dismissIntent.putExtra("SSID", SSID).putExtra("dismissed", true);
+        PendingIntent dismissPendingIntent = PendingIntent.getBroadcast(context, 4, dismissIntent, PendingIntent.FLAG_CANCEL_CURRENT);
 
         // Build the notification dynamically, based on the network name
         Resources res = context.getResources();
@@ -86,24 +181,164 @@ public class NotificationHandler {
                 .setContentText(permissionString)
                 .setStyle(new NotificationCompat.BigTextStyle().bigText(permissionString))
                 .setContentIntent(activityPendingIntent)
+                .setDeleteIntent(dismissPendingIntent)
+                .setSortKey(String.format(Locale.US, "%04d", rank))
                 .addAction(android.R.drawable.ic_delete, no, disablePendingIntent)
                 .addAction(android.R.drawable.ic_input_add, yes, addPendingIntent);
-        notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        if (android.os.Build.VERSION.SDK_INT >= 24)
+            notificationBuilder.setGroup(PERMISSION_GROUP);
+        notificationManager.notify(getNotificationId(SSID), notificationBuilder.build());
+        Metrics.increment(Metrics.Counter.PROMPTS_SHOWN);
+    }
+
+    /**
+     * Create an intent for PermissionChangeReceiver that is unique for the given network and
+     * action, so that the pending intents of different notifications don't replace each other
+     */
+    private Intent createPermissionIntent(String SSID, String action) {
+        Intent intent = new Intent(context, PermissionChangeReceiver.class);
+        intent.setData(Uri.fromParts("privacypolice", SSID, action));
+        return intent;
+    }
+
+    /**
+     * On Android 7.0 and up, show a summary of all networks we ask permission for, which bundles
+     * their notifications. Older versions show the notifications separately, since they would only
+     * show the summary (and thus no actions for the separate networks).
+     */
+    private void updateSummary() {
+        if (android.os.Build.VERSION.SDK_INT < 24)
+            return;
+        if (shownPrompts.size() < 2) {
+            notificationManager.cancel(PERMISSION_NOTIFICATION_ID);
+            return;
+        }
+        Resources res = context.getResources();
+        String headerString = String.format(res.getString(R.string.permission_summary_header), shownPrompts.size());
+        NotificationCompat.InboxStyle inboxStyle = new NotificationCompat.InboxStyle()
+                .setBigContentTitle(headerString);
+        for (String SSID : shownPrompts.keySet())
+            inboxStyle.addLine(SSID);
+        NotificationCompat.Builder notificationBuilder = new NotificationCompat.Builder(context)
+                .setSmallIcon(R.drawable.ic_notification)
+                .setPriority(Notification.PRIORITY_MAX)
+                .setContentTitle(headerString)
+                .setContentText(res.getString(R.string.permission_summary))
+                .setStyle(inboxStyle)
+                .setGroup(PERMISSION_GROUP)
+                .setGroupSummary(true)
+                .setOnlyAlertOnce(true);
         notificationManager.notify(PERMISSION_NOTIFICATION_ID, notificationBuilder.build());
     }
 
-    public void cancelPermissionRequest() {
-        notificationManager.cancel(PERMISSION_NOTIFICATION_ID);
+    /**
+     * Remove the permission notification for a single network, if it is shown
+     * @param SSID The name of the network
+     */
+    public void cancelPermissionRequest(String SSID) {
+        synchronized (NotificationHandler.class) {
+            Map<String, PermissionPrompt> prompts = getShownPrompts();
+            if (!prompts.containsKey(SSID))
+                return; // Nothing to cancel
+            notificationManager.cancel(getNotificationId(SSID));
+            releaseNotificationId(SSID);
+            Map<String, PermissionPrompt> newPrompts = new LinkedHashMap<>(prompts);
+            newPrompts.remove(SSID);
+            shownPrompts = newPrompts;
+            updateSummary();
+            saveShownPrompts();
+        }
+    }
+
+    /**
+     * Called when the user dismissed the permission notification for a network without answering
+     * @param SSID The name of the network
+     */
+    public void onPermissionRequestDismissed(String SSID) {
+        synchronized (NotificationHandler.class) {
+            // The notification is already gone. Forget about it, so we ask again on a next scan
+            Map<String, PermissionPrompt> newPrompts = new LinkedHashMap<>(getShownPrompts());
+            if (newPrompts.remove(SSID) == null)
+                return;
+            releaseNotificationId(SSID);
+            shownPrompts = newPrompts;
+            updateSummary();
+            saveShownPrompts();
+        }
+    }
+
+    /**
+     * Notification id for the permission request for a given network. Every network that is shown
+     * gets its own id, which is remembered so it stays the same when our process is restarted.
+     * Must be called while holding the NotificationHandler class lock.
+     */
+    private int getNotificationId(String SSID) {
+        SharedPreferences state = context.getSharedPreferences(PROMPT_STATE_FILE, Context.MODE_PRIVATE);
+        int id = state.getInt(NOTIFICATION_ID_PREFIX + SSID, 0);
+        if (id != 0)
+            return id;
+        id = state.getInt(NEXT_NOTIFICATION_ID_KEY, FIRST_PROMPT_NOTIFICATION_ID);
+        int nextId = id == Integer.MAX_VALUE ? FIRST_PROMPT_NOTIFICATION_ID : id + 1;
+        state.edit()
+                .putInt(NOTIFICATION_ID_PREFIX + SSID, id)
+                .putInt(NEXT_NOTIFICATION_ID_KEY, nextId)
+                .apply();
+        return id;
+    }
+
+    /**
+     * Forget the notification id of a network whose permission request is no longer shown.
+     * Must be called while holding the NotificationHandler class lock.
+     */
+    private void releaseNotificationId(String SSID) {
+        context.getSharedPreferences(PROMPT_STATE_FILE, Context.MODE_PRIVATE).edit()
+                .remove(NOTIFICATION_ID_PREFIX + SSID)
+                .apply();
+    }
+
+    /**
+     * Get the permission requests that are currently shown. When our process was restarted, we
+     * only know the SSIDs of the shown requests, which is enough to remove them later on.
+     * Must be called while holding the NotificationHandler class lock.
+     */
+    private Map<String, PermissionPrompt> getShownPrompts() {
+        if (shownPrompts == null) {
+            shownPrompts = new LinkedHashMap<>();
+            SharedPreferences state = context.getSharedPreferences(PROMPT_STATE_FILE, Context.MODE_PRIVATE);
+            Set<String> SSIDs = state.getStringSet(PROMPT_STATE_KEY, Collections.<String>emptySet());
+            SharedPreferences.Editor editor = state.edit();
+            // Older versions asked about a single network, using the id that is now used for the
+            // summary. Nothing tracks that request anymore, so remove it (on any Android version).
+            if (!state.getBoolean(LEGACY_NOTIFICATION_CANCELLED_KEY, false)) {
+                notificationManager.cancel(PERMISSION_NOTIFICATION_ID);
+                editor.putBoolean(LEGACY_NOTIFICATION_CANCELLED_KEY, true);
+            }
+            for (String SSID : SSIDs) {
+                // An invalid BSSID never matches, so the notification will be re-posted when needed
+                shownPrompts.put(SSID, new PermissionPrompt(SSID, BSSIDCodec.INVALID, 0));
+                // Older versions derived the id from the SSID, so requests they posted can be removed
+                if (state.getInt(NOTIFICATION_ID_PREFIX + SSID, 0) == 0)
+                    editor.putInt(NOTIFICATION_ID_PREFIX + SSID, SSID.hashCode() | FIRST_PROMPT_NOTIFICATION_ID);
+            }
+            editor.apply();
+        }
+        return shownPrompts;
+    }
+
+    private void saveShownPrompts() {
+        context.getSharedPreferences(PROMPT_STATE_FILE, Context.MODE_PRIVATE).edit()
+                .putStringSet(PROMPT_STATE_KEY, new HashSet<>(shownPrompts.keySet()))
+                .apply();
     }
 
     public void askLocationPermission() {
         PreferencesStorage prefs = new PreferencesStorage(context);
         if (!prefs.getLocationNoticeEnabled()) {
-            Log.d("PrivacyPolice", "Location nagging is disabled. Not showing notification");
+            Logger.d("Location nagging is disabled. Not showing notification");
             return;
         }
 
-        Log.d("PrivacyPolice", "Asking location permission");
+        Logger.d("Asking location permission");
         Resources res = context.getResources();
         Intent locationNoticeIntent = new Intent(context, LocationNoticeActivity.class);
         PendingIntent pendingIntent = PendingIntent.getActivity(context, 3, locationNoticeIntent, PendingIntent.FLAG_UPDATE_CURRENT);
@@ -119,7 +354,7 @@ public class NotificationHandler {
     }
 
     public void cancelLocationPermissionRequest() {
-        Log.d("PrivacyPolice", "Canceling location permission request");
+        Logger.d("Canceling location permission request");
         notificationManager.cancel(LOCATION_NOTIFICATION_ID);
     }
 }
@@ -23,8 +23,6 @@ import android.app.NotificationManager;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.net.wifi.WifiManager;
-import android.util.Log;
 
 /**
  * Class that handles user actions deciding whether or not an AP should be trusted. Broadcasts are
@@ -38,34 +36,41 @@ public class PermissionChangeReceiver extends BroadcastReceiver {
     @Override
     public void onReceive(Context context, Intent intent) {
         ctx = context;
-        prefs = new PreferencesStorage(ctx);
+        String SSID = intent.getStringExtra("SSID");
 
-        // Remove the notification that was used to make the decision
-        removeNotification();
+        if (intent.getBooleanExtra("dismissed", false)) {
+            // The notification is already gone; make sure we ask again on a next scan
+            if (SSID != null)
+                new NotificationHandler(ctx).onPermissionRequestDismissed(SSID);
+            return;
+        }
+
+        prefs = new PreferencesStorage(ctx);
 
         boolean enable = intent.getBooleanExtra("enable", true);
-        String SSID = intent.getStringExtra("SSID");
         String BSSID = intent.getStringExtra("BSSID");
 
         if (SSID == null || BSSID == null) {
-            Log.e("PrivacyPolice", "Could not set permission because SSID or BSSID was null!");
+            Logger.e("Could not set permission because SSID or BSSID was null!");
             return;
         }
 
-        Log.d("PrivacyPolice", "Permission change: " + SSID + " " + BSSID + " " + enable);
+        // Remove the notification that was used to make the decision
+        removeNotification(SSID);
+
+        Logger.d("Permission change: %s %s %s", SSID, BSSID, enable);
 
         if (enable) {
             prefs.addAllowedBSSIDsForLocation(SSID);
             // initiate rescan, to make sure our algorithm enables the network, and to make sure
             // that Android connects to it
-            WifiManager wifiManager = (WifiManager) ctx.getSystemService(Context.WIFI_SERVICE);
-            wifiManager.startScan();
+            ScanRequestBroker.getInstance(ctx).requestScan(ScanRequestBroker.Priority.USER);
         } else
             prefs.addBlockedBSSID(SSID, BSSID);
     }
 
-    private void removeNotification() {
+    private void removeNotification(String SSID) {
         NotificationHandler notificationHandler = new NotificationHandler(ctx);
-        notificationHandler.cancelPermissionRequest();
+        notificationHandler.cancelPermissionRequest(SSID);
     }
 }
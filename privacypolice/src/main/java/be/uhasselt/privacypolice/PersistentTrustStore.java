@@ -0,0 +1,747 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package be.uhasselt.privacypolice;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.sqlite.SQLiteException;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import be.uhasselt.privacypolice.policy.AccessPoint;
+import be.uhasselt.privacypolice.policy.BSSIDCodec;
+import be.uhasselt.privacypolice.policy.LongHashSet;
+import be.uhasselt.privacypolice.policy.TrustIndex;
+import be.uhasselt.privacypolice.policy.TrustListReader;
+import be.uhasselt.privacypolice.policy.TrustListWriter;
+import be.uhasselt.privacypolice.policy.TrustStore;
+
+/**
+ * Process-wide store of the trusted and untrusted access points for every SSID.
+ * The access points are kept in a dedicated database (see TrustDatabase), which is loaded into an
+ * in-memory index once, on the background thread of the write queue. The store is often first used
+ * from the main thread (e.g. by a broadcast receiver), which should not wait for the disk: edits
+ * made before the access points are loaded are applied once they are, and the user interface uses
+ * runWhenLoaded(). Only the other methods that read the access points wait until they are loaded.
+ * Changes are applied to the index immediately, and written to the database in the background
+ * (see TrustWriteQueue), so every read sees them, but no caller waits for the disk. This also keeps the database out of the path that is taken for every scan.
+ * Access points are forgotten when they were not seen for a while, or when too many of them are
+ * known, if the user chose so. To know when an access point was last seen, the scan results are
+ * passed to onAccessPointsSeen(), which writes at most one update per access point per
+ * TOUCH_INTERVAL.
+ * Older versions kept the access points in the shared preferences; these are moved to the database
+ * the first time the store is loaded.
+ */
+
+public class PersistentTrustStore implements TrustStore {
+    private static PersistentTrustStore instance = null;
+
+    // Strings used to identify MAC addresses of allowed and blocked access points in the
+    // preferences of older versions
+    private static final String ALLOWED_BSSID_PREFIX = "ABSSID//";
+    private static final String BLOCKED_BSSID_PREFIX = "BBSSID//";
+
+    // Preferences that decide when access points are forgotten. Both are numbers stored as strings
+    // (by a ListPreference), where 0 means never.
+    private static final String FORGET_AFTER_DAYS_KEY = "forgetHotspotsAfterDays";
+    private static final String MAX_HOTSPOTS_KEY = "maxKnownHotspots";
+
+    // Minimum time between two updates of the time an access point was last seen
+    private static final long TOUCH_INTERVAL = 60 * 60 * 1000;
+    // Time between two checks for access points that should be forgotten
+    private static final long EVICTION_INTERVAL = 24 * 60 * 60 * 1000;
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+    // Number of networks that are updated at once after importing a trust list
+    private static final int RELOAD_BATCH_SIZE = 32;
+
+    private SharedPreferences prefs;
+    private final TrustDatabase database;
+    private final TrustWriteQueue writeQueue;
+    private final TrustIndex index = new TrustIndex();
+    // Released once the access points are loaded into the index
+    private final CountDownLatch loaded = new CountDownLatch(1);
+    // Number of edits that wait for the access points to be loaded (see deferUntilLoaded())
+    private int deferredEdits = 0;
+    // Incremented on every change to the trust lists or to any other preference
+    private final AtomicLong version = new AtomicLong();
+    // Time (in System.currentTimeMillis()) at which we last wrote that an access point was seen,
+    // keyed by its BSSID and SSID
+    private final Map<String, Long> touchTimes = new HashMap<>();
+    // Time (in System.currentTimeMillis()) of the last check for access points to forget
+    private volatile long lastEviction = 0;
+    // Kept in a field, since SharedPreferences only keeps a weak reference to its listeners
+    private final SharedPreferences.OnSharedPreferenceChangeListener preferenceListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                    version.incrementAndGet();
+                    if (FORGET_AFTER_DAYS_KEY.equals(key) || MAX_HOTSPOTS_KEY.equals(key))
+                        evict();
+                }
+            };
+
+    private final Runnable evictRunnable = new Runnable() {
+        @Override
+        public void run() {
+            doEvict();
+        }
+    };
+
+    public static synchronized PersistentTrustStore getInstance(Context ctx) {
+        if (instance == null) {
+            instance = new PersistentTrustStore(ctx);
+        }
+        return instance;
+    }
+
+    private PersistentTrustStore(Context ctx) {
+        // Use getApplicationContext() to prevent leaking the context of the first caller
+        this.prefs = PreferenceManager.getDefaultSharedPreferences(ctx.getApplicationContext());
+        this.database = new TrustDatabase(ctx);
+        this.writeQueue = new TrustWriteQueue(ctx, database);
+        prefs.registerOnSharedPreferenceChangeListener(preferenceListener);
+        // Opening the database (and upgrading it) can take a while, so do it in the background
+        writeQueue.post(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    private void load() {
+        try {
+            migrateFromPreferences();
+            database.load(index);
+            Logger.d("Loaded trusted access points for %d networks, and blocked access points for %d networks",
+                    index.getAllowedNetworkCount(), index.getBlockedNetworkCount());
+        } catch (SQLiteException sqle) {
+            // Keep going without the stored access points, rather than blocking every caller
+            Logger.e("Could not load the trusted access points", sqle);
+        } finally {
+            loaded.countDown();
+        }
+        writeQueue.compactIfDue();
+    }
+
+    /**
+     * Postpone an edit until the access points are loaded, so callers (often on the main thread)
+     * never wait for the database. Edits are applied in the order in which they are made: once an
+     * edit is postponed, so are all later ones, until the postponed ones have run.
+     * Must be called while holding our lock.
+     * @return true if the edit was postponed, false if it should be applied right away
+     */
+    private boolean deferUntilLoaded(final Runnable edit) {
+        if (loaded.getCount() == 0 && deferredEdits == 0)
+            return false;
+        deferredEdits++;
+        // Runs on the background thread of the write queue, so after load()
+        writeQueue.post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (PersistentTrustStore.this) {
+                    deferredEdits--;
+                    edit.run();
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Run a task once the access points are loaded, so the user interface can show them without
+     * waiting for the database. If they are loaded already, the task runs right away, on the
+     * calling thread. Otherwise, it runs on the main thread.
+     */
+    public void runWhenLoaded(final Runnable task) {
+        if (loaded.getCount() == 0) {
+            task.run();
+            return;
+        }
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        writeQueue.post(new Runnable() {
+            @Override
+            public void run() {
+                mainHandler.post(task);
+            }
+        });
+    }
+
+    /**
+     * Block until the access points are loaded. Never called on the background thread of the
+     * write queue before load() ran, since that runs first.
+     */
+    private void awaitLoaded() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                loaded.await();
+                break;
+            } catch (InterruptedException ie) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Move all BSSID lists that are stored in the preferences (by older versions) to the database.
+     * The lists are only removed from the preferences once they are safely in the database.
+     */
+    private void migrateFromPreferences() {
+        List<String> keys = new ArrayList<>();
+        List<String> SSIDs = new ArrayList<>();
+        List<Long> BSSIDs = new ArrayList<>();
+        List<Boolean> verdicts = new ArrayList<>();
+        for (Map.Entry<String, ?> pref : prefs.getAll().entrySet()) {
+            String key = pref.getKey();
+            boolean allowed = key.startsWith(ALLOWED_BSSID_PREFIX);
+            if (!allowed && !key.startsWith(BLOCKED_BSSID_PREFIX))
+                continue;
+            keys.add(key);
+            if (!(pref.getValue() instanceof Set))
+                continue;
+            String SSID = key.substring(allowed ? ALLOWED_BSSID_PREFIX.length() : BLOCKED_BSSID_PREFIX.length());
+            for (Object BSSID : (Set<?>) pref.getValue()) {
+                long parsed = BSSIDCodec.parse((String) BSSID);
+                if (parsed == BSSIDCodec.INVALID) {
+                    Logger.w("Ignoring stored MAC address that could not be parsed: %s", BSSID);
+                    continue;
+                }
+                SSIDs.add(SSID);
+                BSSIDs.add(parsed);
+                verdicts.add(allowed);
+            }
+        }
+        if (keys.isEmpty())
+            return; // Nothing (left) to migrate
+
+        String[] SSIDArray = SSIDs.toArray(new String[SSIDs.size()]);
+        long[] BSSIDArray = new long[BSSIDs.size()];
+        boolean[] verdictArray = new boolean[verdicts.size()];
+        for (int i = 0; i < BSSIDArray.length; i++) {
+            BSSIDArray[i] = BSSIDs.get(i);
+            verdictArray[i] = verdicts.get(i);
+        }
+        database.insertAll(SSIDArray, BSSIDArray, verdictArray);
+
+        SharedPreferences.Editor editor = prefs.edit();
+        for (String key : keys)
+            editor.remove(key);
+        editor.commit();
+        Logger.i("Moved %d access points from the preferences to the database", BSSIDArray.length);
+    }
+
+    /**
+     * Get the current version of the trust lists and settings. The version changes every time
+     * anything is changed that could influence which networks should be enabled.
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    @Override
+    public boolean isAllowed(String SSID, long BSSID) {
+        awaitLoaded();
+        return index.isAllowed(SSID, BSSID);
+    }
+
+    @Override
+    public boolean isBlocked(String SSID, long BSSID) {
+        awaitLoaded();
+        return index.isBlocked(SSID, BSSID);
+    }
+
+    /**
+     * Get the trusted MAC addresses for a given SSID
+     * @param SSID the SSID of the network
+     * @return a newly allocated array of 48-bit MAC addresses
+     */
+    public long[] getAllowedBSSIDs(String SSID) {
+        awaitLoaded();
+        return index.getAllowedBSSIDs(SSID);
+    }
+
+    /**
+     * Get the blocked MAC addresses for a given SSID
+     * @param SSID the SSID of the network
+     * @return a newly allocated array of 48-bit MAC addresses
+     */
+    public long[] getBlockedBSSIDs(String SSID) {
+        awaitLoaded();
+        return index.getBlockedBSSIDs(SSID);
+    }
+
+    /**
+     * Get a list of SSIDs for which we remembered at least one BSSID (either allowed or blocked)
+     */
+    public Set<String> getNonemptySSIDs() {
+        awaitLoaded();
+        return index.getNonemptySSIDs();
+    }
+
+    /**
+     * Get the number of allowed and blocked BSSIDs of every SSID for which we remembered at least
+     * one
+     * @return a read-only view, which reflects later changes
+     */
+    public Map<String, TrustIndex.NetworkCounts> getNetworkCounts() {
+        awaitLoaded();
+        return index.getNetworkCounts();
+    }
+
+    /**
+     * Add or remove a single BSSID. The change is visible immediately (or as soon as the access
+     * points are loaded), and written to the database in the background.
+     * @param SSID the SSID of the network
+     * @param BSSID the MAC address of the access point
+     * @param allowed when true, edit the allowed BSSIDs, when false, edit the blocked BSSIDs
+     * @param add when true, add the BSSID to the list, when false, remove it
+     */
+    public synchronized void editBSSID(final String SSID, final String BSSID, final boolean allowed, final boolean add) {
+        boolean deferred = deferUntilLoaded(new Runnable() {
+            @Override
+            public void run() {
+                doEditBSSID(SSID, BSSID, allowed, add);
+            }
+        });
+        if (!deferred)
+            doEditBSSID(SSID, BSSID, allowed, add);
+    }
+
+    private void doEditBSSID(String SSID, String BSSID, boolean allowed, boolean add) {
+        long parsedBSSID = BSSIDCodec.parse(BSSID);
+        if (parsedBSSID == BSSIDCodec.INVALID) {
+            Logger.e("Not editing invalid MAC address %s for network %s", BSSID, SSID);
+            return;
+        }
+        if (!index.edit(SSID, parsedBSSID, allowed, add))
+            return; // Nothing changed
+
+        if (add) {
+            writeQueue.insert(SSID, parsedBSSID, allowed);
+        } else {
+            writeQueue.delete(SSID, parsedBSSID, allowed);
+            forgetTouchTime(SSID, parsedBSSID);
+        }
+        version.incrementAndGet();
+    }
+
+    /**
+     * A set of changes to the allowed and blocked BSSIDs, which are applied together: they are
+     * written to the database in a single transaction, and all changes to the same list of a
+     * network become visible at once.
+     */
+    public class Batch {
+        private final List<Edit> edits = new ArrayList<>();
+
+        private Batch() {
+        }
+
+        public Batch allow(String SSID, String BSSID) {
+            return edit(SSID, BSSID, true, true);
+        }
+
+        public Batch block(String SSID, String BSSID) {
+            return edit(SSID, BSSID, false, true);
+        }
+
+        /**
+         * Add or remove a single BSSID, as in editBSSID()
+         */
+        public Batch edit(String SSID, String BSSID, boolean allowed, boolean add) {
+            long parsedBSSID = BSSIDCodec.parse(BSSID);
+            if (parsedBSSID == BSSIDCodec.INVALID)
+                Logger.e("Not editing invalid MAC address %s for network %s", BSSID, SSID);
+            else
+                edits.add(new Edit(SSID, parsedBSSID, allowed, add));
+            return this;
+        }
+
+        /**
+         * Apply all changes, in the order in which they were added
+         * @return the number of BSSIDs that were actually added or removed, or 0 if the changes
+         *          are applied in the background because the access points are still being loaded
+         */
+        public int apply() {
+            return applyBatch(edits);
+        }
+    }
+
+    private static final class Edit {
+        final String SSID;
+        final long BSSID;
+        final boolean allowed;
+        final boolean add;
+
+        Edit(String SSID, long BSSID, boolean allowed, boolean add) {
+            this.SSID = SSID;
+            this.BSSID = BSSID;
+            this.allowed = allowed;
+            this.add = add;
+        }
+
+        boolean isSameList(Edit other) {
+            return SSID.equals(other.SSID) && allowed == other.allowed && add == other.add;
+        }
+    }
+
+    /**
+     * Start a set of changes that is applied at once
+     */
+    public Batch batch() {
+        return new Batch();
+    }
+
+    private synchronized int applyBatch(List<Edit> edits) {
+        final List<Edit> batchEdits = new ArrayList<>(edits);
+        boolean deferred = deferUntilLoaded(new Runnable() {
+            @Override
+            public void run() {
+                doApplyBatch(batchEdits);
+            }
+        });
+        return deferred ? 0 : doApplyBatch(batchEdits);
+    }
+
+    private int doApplyBatch(List<Edit> edits) {
+        int changedCount = 0;
+        // Keep the write queue from writing until the whole batch is queued
+        synchronized (writeQueue) {
+            int start = 0;
+            while (start < edits.size()) {
+                // Apply every run of edits to the same list in one go
+                Edit first = edits.get(start);
+                int end = start + 1;
+                while (end < edits.size() && edits.get(end).isSameList(first))
+                    end++;
+                long[] BSSIDs = new long[end - start];
+                for (int i = start; i < end; i++)
+                    BSSIDs[i - start] = edits.get(i).BSSID;
+
+                for (long BSSID : index.editAll(first.SSID, first.allowed, BSSIDs, first.add)) {
+                    if (first.add)
+                        writeQueue.insert(first.SSID, BSSID, first.allowed);
+                    else
+                        writeQueue.delete(first.SSID, BSSID, first.allowed);
+                    changedCount++;
+                }
+                start = end;
+            }
+        }
+        // Not done while holding the lock of the write queue, since onAccessPointsSeen() takes
+        // both locks in the opposite order
+        for (Edit edit : edits) {
+            if (!edit.add)
+                forgetTouchTime(edit.SSID, edit.BSSID);
+        }
+        if (changedCount > 0)
+            version.incrementAndGet();
+        return changedCount;
+    }
+
+    /**
+     * Add all access points of a trust list to the ones we know. The list is read one access point
+     * at a time, and written to the database in a single transaction, so nothing is imported if
+     * the list turns out to be invalid halfway. The import runs on the background thread of the
+     * write queue, after the changes that are pending now and before the ones made while it runs.
+     * Access points that are already known with the opposite verdict are skipped, so an imported
+     * list never overrides a decision the user made on this device (see TrustListFormat).
+     * Must not be called on the main thread.
+     * @return the number of access points that were not known yet
+     * @throws IOException if the list could not be read or is invalid
+     */
+    public int importTrustList(final TrustListReader reader) throws IOException {
+        awaitLoaded();
+        FutureTask<Integer> task = new FutureTask<>(new Callable<Integer>() {
+            @Override
+            public Integer call() throws IOException {
+                return doImport(reader);
+            }
+        });
+        writeQueue.runAfterFlush(task);
+        try {
+            return task.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while importing the trust list");
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof IOException)
+                throw (IOException) ee.getCause();
+            throw new IOException("Could not import the trust list", ee.getCause());
+        }
+    }
+
+    private int doImport(TrustListReader reader) throws IOException {
+        Set<String> changedSSIDs = new HashSet<>();
+        int importedCount;
+        try {
+            importedCount = database.importFrom(reader, changedSSIDs);
+        } catch (SQLiteException sqle) {
+            throw new IOException("Could not store the imported access points", sqle);
+        }
+
+        // Update the index from the database, a few networks at a time so no caller waits long for
+        // our lock. Pending changes are written first, so the database holds all of them.
+        List<String> SSIDs = new ArrayList<>(changedSSIDs);
+        for (int start = 0; start < SSIDs.size(); start += RELOAD_BATCH_SIZE) {
+            synchronized (this) {
+                if (!writeQueue.flush())
+                    throw new IOException("Could not write the pending changes to the access points");
+                try {
+                    for (String SSID : SSIDs.subList(start, Math.min(start + RELOAD_BATCH_SIZE, SSIDs.size())))
+                        database.loadNetwork(SSID, index);
+                } catch (SQLiteException sqle) {
+                    throw new IOException("Could not load the imported access points", sqle);
+                }
+                version.incrementAndGet();
+            }
+        }
+        Logger.i("Imported %d new access points for %d networks", importedCount, SSIDs.size());
+        return importedCount;
+    }
+
+    /**
+     * Write all known access points to a trust list. Must not be called on the main thread.
+     * @return the number of access points written
+     */
+    public int exportTrustList(TrustListWriter writer) throws IOException {
+        awaitLoaded();
+        // Make sure the list includes the latest changes
+        if (!writeQueue.flush())
+            throw new IOException("Could not write the pending changes to the access points");
+        try {
+            return database.exportTo(writer);
+        } catch (SQLiteException sqle) {
+            throw new IOException("Could not read the access points to export", sqle);
+        }
+    }
+
+    /**
+     * Erase all trusted and untrusted hotspots.
+     */
+    public synchronized void clearAll() {
+        boolean deferred = deferUntilLoaded(new Runnable() {
+            @Override
+            public void run() {
+                doClearAll();
+            }
+        });
+        if (!deferred)
+            doClearAll();
+    }
+
+    private void doClearAll() {
+        writeQueue.deleteAll();
+        synchronized (touchTimes) {
+            touchTimes.clear();
+        }
+        // Give the space used by all removed access points back right away
+        writeQueue.compact();
+        index.clear();
+        version.incrementAndGet();
+    }
+
+    /**
+     * Erase all known hotspots for a specific SSID.
+     */
+    public synchronized void clearNetwork(final String SSID) {
+        boolean deferred = deferUntilLoaded(new Runnable() {
+            @Override
+            public void run() {
+                doClearNetwork(SSID);
+            }
+        });
+        if (!deferred)
+            doClearNetwork(SSID);
+    }
+
+    private void doClearNetwork(String SSID) {
+        writeQueue.deleteNetwork(SSID);
+        index.clearNetwork(SSID);
+        synchronized (touchTimes) {
+            Iterator<String> iterator = touchTimes.keySet().iterator();
+            while (iterator.hasNext()) {
+                String key = iterator.next();
+                // The BSSID part of the key never contains a separator
+                if (key.substring(key.indexOf('/') + 1).equals(SSID))
+                    iterator.remove();
+            }
+        }
+        version.incrementAndGet();
+    }
+
+    /**
+     * @return the size of the database holding the access points, in bytes
+     */
+    public long getDatabaseSize() {
+        return database.getSize();
+    }
+
+    /**
+     * @return the time (in System.currentTimeMillis()) at which the database was last compacted,
+     *          or 0 if it never was
+     */
+    public long getLastCompactionTime() {
+        return writeQueue.getLastCompactionTime();
+    }
+
+    /**
+     * @return the number of bytes reclaimed by compacting the database, since it was created
+     */
+    public long getReclaimedBytes() {
+        return writeQueue.getReclaimedBytes();
+    }
+
+    /**
+     * Remember that the given access points were seen just now, and forget the access points that
+     * were not seen for too long, if that was not checked recently. Only access points that we
+     * know of are remembered. Does nothing while the access points are still being loaded, since
+     * they will be seen again at the next scan.
+     */
+    public void onAccessPointsSeen(List<AccessPoint> accessPoints) {
+        if (loaded.getCount() != 0)
+            return;
+        long now = System.currentTimeMillis();
+        synchronized (touchTimes) {
+            for (AccessPoint accessPoint : accessPoints) {
+                if (!index.isAllowed(accessPoint.SSID, accessPoint.BSSID) && !index.isBlocked(accessPoint.SSID, accessPoint.BSSID))
+                    continue;
+                String key = getTouchKey(accessPoint.SSID, accessPoint.BSSID);
+                Long lastTouch = touchTimes.get(key);
+                if (lastTouch != null && now - lastTouch < TOUCH_INTERVAL)
+                    continue;
+                touchTimes.put(key, now);
+                writeQueue.touch(accessPoint.SSID, accessPoint.BSSID, now);
+            }
+        }
+        if (now - lastEviction >= EVICTION_INTERVAL)
+            evict();
+    }
+
+    private static String getTouchKey(String SSID, long BSSID) {
+        return BSSID + "/" + SSID;
+    }
+
+    /**
+     * Stop remembering when an access point was last seen, once it is no longer in either list
+     */
+    private void forgetTouchTime(String SSID, long BSSID) {
+        if (index.isAllowed(SSID, BSSID) || index.isBlocked(SSID, BSSID))
+            return;
+        synchronized (touchTimes) {
+            touchTimes.remove(getTouchKey(SSID, BSSID));
+        }
+    }
+
+    /**
+     * Forget the access points that were not seen for too long, or the oldest ones when too many
+     * are known, in the background
+     */
+    public void evict() {
+        lastEviction = System.currentTimeMillis();
+        if (getIntPreference(FORGET_AFTER_DAYS_KEY) == 0 && getIntPreference(MAX_HOTSPOTS_KEY) == 0)
+            return; // The user wants to keep all access points
+        // Make sure all times at which access points were seen are written first
+        writeQueue.runAfterFlush(evictRunnable);
+    }
+
+    private void doEvict() {
+        int forgetAfterDays = getIntPreference(FORGET_AFTER_DAYS_KEY);
+        long notSeenSince = forgetAfterDays > 0 ? System.currentTimeMillis() - forgetAfterDays * DAY : 0;
+        List<TrustDatabase.Entry> entries;
+        try {
+            entries = database.findEvictable(notSeenSince, getIntPreference(MAX_HOTSPOTS_KEY));
+        } catch (SQLiteException sqle) {
+            Logger.e("Could not look for access points to forget", sqle);
+            return;
+        }
+        if (entries.isEmpty())
+            return;
+
+        // Group the access points per list, so every list is only copied once
+        Map<String, LongHashSet> evictedAllowed = new HashMap<>();
+        Map<String, LongHashSet> evictedBlocked = new HashMap<>();
+        for (TrustDatabase.Entry entry : entries) {
+            Map<String, LongHashSet> evicted = entry.allowed ? evictedAllowed : evictedBlocked;
+            LongHashSet BSSIDs = evicted.get(entry.SSID);
+            if (BSSIDs == null) {
+                BSSIDs = new LongHashSet();
+                evicted.put(entry.SSID, BSSIDs);
+            }
+            BSSIDs.add(entry.BSSID);
+        }
+
+        int evictedCount = 0;
+        synchronized (this) {
+            synchronized (writeQueue) {
+                evictedCount += removeAll(evictedAllowed, true);
+                evictedCount += removeAll(evictedBlocked, false);
+            }
+            for (TrustDatabase.Entry entry : entries)
+                forgetTouchTime(entry.SSID, entry.BSSID);
+            version.incrementAndGet();
+        }
+        Metrics.add(Metrics.Counter.TRUST_EVICTIONS, evictedCount);
+        Logger.i("Forgot %d access points that were not seen for a long time", evictedCount);
+    }
+
+    /**
+     * Remove the given BSSIDs from the allowed or blocked lists of their networks
+     * @return the number of BSSIDs that were actually removed
+     */
+    private int removeAll(Map<String, LongHashSet> BSSIDsPerSSID, boolean allowed) {
+        int removedCount = 0;
+        for (Map.Entry<String, LongHashSet> network : BSSIDsPerSSID.entrySet()) {
+            String SSID = network.getKey();
+            for (long BSSID : index.editAll(SSID, allowed, network.getValue().toArray(), false)) {
+                writeQueue.delete(SSID, BSSID, allowed);
+                removedCount++;
+            }
+        }
+        return removedCount;
+    }
+
+    private int getIntPreference(String key) {
+        try {
+            return Integer.parseInt(prefs.getString(key, "0"));
+        } catch (NumberFormatException nfe) {
+            Logger.w("Invalid value for preference %s", key);
+            return 0;
+        }
+    }
+}
@@ -25,13 +25,20 @@ import android.app.FragmentTransaction;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.net.wifi.WifiManager;
+import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.Preference;
 import android.preference.PreferenceFragment;
-import android.util.Log;
 import android.view.View;
 import android.widget.TextView;
+import android.widget.Toast;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+
+import be.uhasselt.privacypolice.policy.TrustListWriter;
 
 /**
  * Since PrivacyPolice does not need a real MainActivity, this class is used to modify the
@@ -50,11 +57,18 @@ public class PreferencesActivity extends Activity {
         PrefsFragment prefsFragment = new PrefsFragment();
         fragmentTransaction.replace(R.id.inflatable_prefs, prefsFragment);
         fragmentTransaction.commit();
+    }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+
+        // Location access might have been changed while we were in the background (e.g. by
+        // granting our permission in the app settings), so check it again
+        LocationAccess.refresh(getApplicationContext());
         // Show the location notice if location is disabled
         TextView locationNotice = (TextView) findViewById(R.id.location_notice);
-        LocationAccess locationAccess = new LocationAccess();
-        if (!locationAccess.isNetworkLocationEnabled(getApplicationContext())) {
+        if (!LocationAccess.isNetworkLocationEnabled(getApplicationContext())) {
             locationNotice.setVisibility(View.VISIBLE);
         } else
             locationNotice.setVisibility(View.GONE);
@@ -72,6 +86,9 @@ public class PreferencesActivity extends Activity {
      * Fragment that is automatically filled with all preferences described in xml/preferences.xml
      */
     public static class PrefsFragment extends PreferenceFragment implements SharedPreferences.OnSharedPreferenceChangeListener {
+        private static final int REQUEST_IMPORT_HOTSPOTS = 1;
+        private static final int REQUEST_EXPORT_HOTSPOTS = 2;
+
         @Override
         public void onCreate(Bundle savedInstanceState) {
             super.onCreate(savedInstanceState);
@@ -82,7 +99,7 @@ public class PreferencesActivity extends Activity {
                 SharedPreferences prefs = getPreferenceManager().getSharedPreferences();
                 prefs.registerOnSharedPreferenceChangeListener(this);
             } catch (NullPointerException npe) {
-                Log.e("PrivacyPolice", "Null pointer exception when trying to register shared preference change listener");
+                Logger.e("Null pointer exception when trying to register shared preference change listener");
             }
 
             // Allow modifying of allowed & blocked APs, via a separate button
@@ -94,19 +111,89 @@ public class PreferencesActivity extends Activity {
                     return true;
                 }
             });
+
+            // Allow moving the known hotspots between devices. Files are picked with the storage
+            // access framework, which is only available on Android 4.4 and up.
+            Preference importHotspotsPreference = findPreference("importHotspots");
+            Preference exportHotspotsPreference = findPreference("exportHotspots");
+            if (android.os.Build.VERSION.SDK_INT >= 19) {
+                importHotspotsPreference.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+                    @Override
+                    public boolean onPreferenceClick(Preference preference) {
+                        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+                        intent.addCategory(Intent.CATEGORY_OPENABLE);
+                        intent.setType("text/plain");
+                        startActivityForResult(intent, REQUEST_IMPORT_HOTSPOTS);
+                        return true;
+                    }
+                });
+                exportHotspotsPreference.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+                    @Override
+                    public boolean onPreferenceClick(Preference preference) {
+                        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+                        intent.addCategory(Intent.CATEGORY_OPENABLE);
+                        intent.setType("text/plain");
+                        intent.putExtra(Intent.EXTRA_TITLE, getString(R.string.export_hotspots_filename));
+                        startActivityForResult(intent, REQUEST_EXPORT_HOTSPOTS);
+                        return true;
+                    }
+                });
+            } else {
+                importHotspotsPreference.setEnabled(false);
+                exportHotspotsPreference.setEnabled(false);
+            }
+
+            // Allow sharing the debug log, e.g. to attach it to a bug report
+            Preference exportLogPreference = findPreference("exportLog");
+            exportLogPreference.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+                @Override
+                public boolean onPreferenceClick(Preference preference) {
+                    exportLog();
+                    return true;
+                }
+            });
+
+            // Show the work we did in the background
+            Preference diagnosticsPreference = findPreference("diagnostics");
+            diagnosticsPreference.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+                @Override
+                public boolean onPreferenceClick(Preference preference) {
+                    Intent intent = new Intent(getActivity(), DiagnosticsActivity.class);
+                    startActivity(intent);
+                    return true;
+                }
+            });
+        }
+
+        @Override
+        public void onActivityResult(int requestCode, int resultCode, Intent data) {
+            if (resultCode != Activity.RESULT_OK || data == null || data.getData() == null)
+                return;
+            switch (requestCode) {
+                case REQUEST_IMPORT_HOTSPOTS:
+                    // Let the import activity ask for confirmation, as it does for other apps
+                    Intent intent = new Intent(getActivity(), ImportTrustListActivity.class);
+                    intent.setData(data.getData());
+                    intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                    startActivity(intent);
+                    break;
+                case REQUEST_EXPORT_HOTSPOTS:
+                    new ExportTask(getActivity()).execute(data.getData());
+                    break;
+            }
         }
 
         @Override
         public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key)
         {
             // Perform a rescan every time a preference has changed
-            Log.v("PrivacyPolice", "Initiating rescan because preference " + key + " changed");
+            if ("debugLog".equals(key))
+                Logger.setDebugEnabled(sharedPreferences.getBoolean(key, false));
+            Logger.v("Initiating rescan because preference %s changed", key);
             try {
-                // getApplicationContext() to prevent memory leaks on devices < Android N
-                WifiManager wifiManager = (WifiManager) getActivity().getApplicationContext().getSystemService(Context.WIFI_SERVICE);
-                wifiManager.startScan();
+                ScanRequestBroker.getInstance(getActivity()).requestScan(ScanRequestBroker.Priority.PREFERENCE);
             } catch (NullPointerException npe) {
-                Log.e("PrivacyPolice", "Could not get WifiManager from within prefsFragment");
+                Logger.e("Could not get activity from within prefsFragment");
             }
         }
 
@@ -114,9 +201,62 @@ public class PreferencesActivity extends Activity {
          * Launch the SSID manager activity
          */
         public void modifyHotspots() {
-            Log.v("PrivacyPolice", "Launching SSID manager");
+            Logger.v("Launching SSID manager");
             Intent intent = new Intent(getActivity(), SSIDManagerActivity.class);
             startActivity(intent);
         }
+
+        /**
+         * Share the messages that were logged since PrivacyPolice was started
+         */
+        public void exportLog() {
+            Intent intent = new Intent(Intent.ACTION_SEND);
+            intent.setType("text/plain");
+            intent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.export_log_subject));
+            intent.putExtra(Intent.EXTRA_TEXT, Logger.dump());
+            startActivity(Intent.createChooser(intent, getString(R.string.export_log)));
+        }
+    }
+
+    /**
+     * Writes all known hotspots to a file, away from the main thread
+     */
+    private static class ExportTask extends AsyncTask<Uri, Void, Integer> {
+        private final Context context;
+
+        ExportTask(Context ctx) {
+            // Use getApplicationContext(), since the task can outlive the activity
+            this.context = ctx.getApplicationContext();
+        }
+
+        @Override
+        protected Integer doInBackground(Uri... uris) {
+            try {
+                OutputStream output = context.getContentResolver().openOutputStream(uris[0]);
+                if (output == null)
+                    throw new IOException("Could not open " + uris[0]);
+                try {
+                    TrustListWriter writer = new TrustListWriter(new OutputStreamWriter(output, "UTF-8"));
+                    int exportedCount = PersistentTrustStore.getInstance(context).exportTrustList(writer);
+                    // Flushes the buffered access points
+                    writer.close();
+                    return exportedCount;
+                } finally {
+                    output.close();
+                }
+            } catch (IOException ioe) {
+                Logger.e("Could not export trust list", ioe);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Integer exportedCount) {
+            if (exportedCount == null)
+                Toast.makeText(context, R.string.export_hotspots_failed, Toast.LENGTH_LONG).show();
+            else
+                Toast.makeText(context, context.getString(R.string.export_hotspots_done, exportedCount),
+                        Toast.LENGTH_LONG).show();
+        }
     }
 }
@@ -24,13 +24,15 @@ import android.content.SharedPreferences;
 import android.net.wifi.ScanResult;
 import android.net.wifi.WifiManager;
 import android.preference.PreferenceManager;
-import android.util.Log;
 
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import be.uhasselt.privacypolice.policy.AccessPoint;
+import be.uhasselt.privacypolice.policy.TrustIndex;
+import be.uhasselt.privacypolice.policy.TrustStore;
+
 /* Class used for storing and retreiving user preferences, including the list of trusted and
    untrusted access points
  */
@@ -38,18 +40,13 @@ import java.util.Set;
 public class PreferencesStorage {
     private SharedPreferences prefs;
     private WifiManager wifiManager;
-    // String used to identify MAC addresses of allowed access points
-    private final String ALLOWED_BSSID_PREFIX = "ABSSID//";
-    private final String BLOCKED_BSSID_PREFIX = "BBSSID//";
+    private PersistentTrustStore trustStore;
 
     public PreferencesStorage(Context ctx) {
         this.prefs = PreferenceManager.getDefaultSharedPreferences(ctx);
         this.wifiManager =  (WifiManager) ctx.getSystemService(Context.WIFI_SERVICE);
-        try {
-            Log.v("PrivacyPolice", "Current preferences are: " + prefs.getAll().toString());
-        } catch (NullPointerException npe) {
-            Log.d("PrivacyPolice", "No preferences found!");
-        }
+        this.trustStore = PersistentTrustStore.getInstance(ctx);
+        Logger.setDebugEnabled(getDebugLogEnabled());
     }
 
     public boolean getEnableOnlyAvailableNetworks() {
@@ -64,6 +61,18 @@ public class PreferencesStorage {
         return prefs.getBoolean("showLocationNotice", true);
     }
 
+    public boolean getDebugLogEnabled() {
+        return prefs.getBoolean("debugLog", false);
+    }
+
+    /**
+     * Get the current version of the stored preferences, including the trusted and blocked
+     * access points. It changes whenever any of them is modified.
+     */
+    public long getVersion() {
+        return trustStore.getVersion();
+    }
+
     /**
      * Will be enabled if we decide to implement tracking
      * @return
@@ -73,51 +82,75 @@ public class PreferencesStorage {
     } */
 
     /**
-     * Get a list of trusted MAC addresses for a given SSID
+     * Get the store of trusted and blocked access points, which can be passed to the PolicyEngine
+     */
+    public TrustStore getTrustStore() {
+        return trustStore;
+    }
+
+    /**
+     * Check whether the user trusts an access point for a given SSID
+     * @param SSID the SSID of the network
+     * @param BSSID the MAC address of the access point, as returned by BSSIDCodec.parse()
+     */
+    public boolean isAllowedBSSID(String SSID, long BSSID) {
+        return trustStore.isAllowed(SSID, BSSID);
+    }
+
+    /**
+     * Check whether the user blocked an access point for a given SSID
+     * @param SSID the SSID of the network
+     * @param BSSID the MAC address of the access point, as returned by BSSIDCodec.parse()
+     */
+    public boolean isBlockedBSSID(String SSID, long BSSID) {
+        return trustStore.isBlocked(SSID, BSSID);
+    }
+
+    /**
+     * Get a list of trusted MAC addresses for a given SSID, in their 48-bit form
        @param SSID the SSID of the network
      */
-    public Set<String> getAllowedBSSIDs(String SSID) {
-        return getBSSIDs(SSID, true);
+    public long[] getAllowedBSSIDs(String SSID) {
+        return trustStore.getAllowedBSSIDs(SSID);
     }
 
     /**
-     * Get a list of blocked MAC addresses for a given SSID
+     * Get a list of blocked MAC addresses for a given SSID, in their 48-bit form
      @param SSID the SSID of the network
      */
-    public Set<String> getBlockedBSSIDs(String SSID) {
-        return getBSSIDs(SSID, false);
+    public long[] getBlockedBSSIDs(String SSID) {
+        return trustStore.getBlockedBSSIDs(SSID);
     }
 
     /**
-     * Helper function for getAllowedBSSIDs and getBlockedSSIDs
-     @param SSID the SSID of the network
-     @param allowed when true, return the allowed BSSIDs, when false, return blocked BSSIDs
+     * Run a task once the trusted and untrusted hotspots are loaded: right away if they already
+     * are, or on the main thread otherwise
      */
-    private Set<String> getBSSIDs(String SSID, boolean allowed) {
-        String prefix;
-        if (allowed)
-            prefix = ALLOWED_BSSID_PREFIX;
-        else
-            prefix = BLOCKED_BSSID_PREFIX;
-        // Return a copy so the receiver cannot edit the list
-        return new HashSet<>(prefs.getStringSet(prefix + SSID, new HashSet<String>()));
+    public void runWhenTrustListsLoaded(Runnable task) {
+        trustStore.runWhenLoaded(task);
     }
 
     /**
      * Get a list of SSIDs for which we remembered at least one BSSID (either allowed or blocked)
      */
     public Set<String> getNonemptySSIDs() {
-        Set<String> results = new HashSet<>();
-
-        Map<String, ?> allPrefs = prefs.getAll();
-        for (String key : allPrefs.keySet()) {
-            if (key.startsWith(ALLOWED_BSSID_PREFIX) && prefs.getStringSet(key, new HashSet<String>()).size() > 0) {
-                results.add(key.substring(ALLOWED_BSSID_PREFIX.length()));
-            } else if (key.startsWith(BLOCKED_BSSID_PREFIX) && prefs.getStringSet(key, new HashSet<String>()).size() > 0) {
-                results.add(key.substring(BLOCKED_BSSID_PREFIX.length()));
-            }
-        }
-        return results;
+        return trustStore.getNonemptySSIDs();
+    }
+
+    /**
+     * Get the number of allowed and blocked BSSIDs of every SSID for which we remembered at least
+     * one
+     * @return a read-only view, which reflects later changes
+     */
+    public Map<String, TrustIndex.NetworkCounts> getNetworkCounts() {
+        return trustStore.getNetworkCounts();
+    }
+
+    /**
+     * Remember that the given access points are in range, so they are not forgotten as unseen
+     */
+    public void onAccessPointsSeen(List<AccessPoint> accessPoints) {
+        trustStore.onAccessPointsSeen(accessPoints);
     }
 
     /**
@@ -128,20 +161,24 @@ public class PreferencesStorage {
      */
     public void addAllowedBSSIDsForLocation(String SSID) {
         List<ScanResult> scanResults = wifiManager.getScanResults();
+        PersistentTrustStore.Batch batch = trustStore.batch();
         for (ScanResult result : scanResults) {
             if (SSID.equals(result.SSID))
-                addAllowedBSSID(SSID, result.BSSID);
+                batch.allow(SSID, result.BSSID);
         }
+        // The access points may still be loading, in which case they are added in the background
+        batch.apply();
+        Logger.i("Adding allowed BSSIDs in range for network %s", SSID);
     }
 
     public void addAllowedBSSID(String SSID, String BSSID) {
-        Log.i("PrivacyPolice", "Adding allowed BSSID " + BSSID + " for network " + SSID);
-        editBSSID(SSID, BSSID, true, true);
+        Logger.i("Adding allowed BSSID %s for network %s", BSSID, SSID);
+        trustStore.editBSSID(SSID, BSSID, true, true);
     }
 
     public void addBlockedBSSID(String SSID, String BSSID) {
-        Log.i("PrivacyPolice", "Adding blocked BSSID " + BSSID + " for network " + SSID);
-        editBSSID(SSID, BSSID, false, true);
+        Logger.i("Adding blocked BSSID %s for network %s", BSSID, SSID);
+        trustStore.editBSSID(SSID, BSSID, false, true);
     }
 
     /**
@@ -150,72 +187,28 @@ public class PreferencesStorage {
      * @param BSSID the MAC address of the trusted access point
      */
     public void removeAllowedBSSID(String SSID, String BSSID) {
-        Log.i("PrivacyPolice", "Removing allowed BSSID " + BSSID + " for network " + SSID);
-        editBSSID(SSID, BSSID, true, false);
+        Logger.i("Removing allowed BSSID %s for network %s", BSSID, SSID);
+        trustStore.editBSSID(SSID, BSSID, true, false);
     }
 
     public void removeBlockedBSSID(String SSID, String BSSID) {
-        Log.i("PrivacyPolice", "Removing blocked BSSID " + BSSID + " for network " + SSID);
-        editBSSID(SSID, BSSID, false, false);
-    }
-
-    /**
-     * Helper function for addAllowedBSSID, addBlockedSSID, removedAllowedBSSID and removeBlockedBSSID
-     * @param SSID the SSID of the network
-     * @param BSSID the MAC address of the trusted access point
-     * @param allowed when true, add to allowed BSSIDs, when false, add to blocked BSSIDs
-     * @param add when true, add the network to the list, when false, remove the network
-     */
-    private void editBSSID(String SSID, String BSSID, boolean allowed, boolean add) {
-        // Get the correct prefix (allowed or blocked hotspots)
-        String prefix;
-        if (allowed)
-            prefix = ALLOWED_BSSID_PREFIX;
-        else
-            prefix = BLOCKED_BSSID_PREFIX;
-
-        // Get the current list of known networks
-        Set<String> currentlyInList = prefs.getStringSet(prefix + SSID, new HashSet<String>());
-        // Create copy of list, because sharedPreferences only checks whether *reference* is the same
-        // In order to add elements, we thus need a new object (otherwise nothing changes)
-        Set<String> newList = new HashSet<>(currentlyInList);
-        if (add)
-            newList.add(BSSID);
-        else
-            newList.remove(BSSID);
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.putStringSet(prefix + SSID, newList);
-        editor.commit();
+        Logger.i("Removing blocked BSSID %s for network %s", BSSID, SSID);
+        trustStore.editBSSID(SSID, BSSID, false, false);
     }
 
     /**
      * Erase all trusted and untrusted hotspots.
      */
     public void clearBSSIDLists() {
-        Log.d("PrivacyPolice", "Removing all trusted/untrusted hotspots");
-        SharedPreferences.Editor editor = prefs.edit();
-
-        // Erase all allowed SSIDs, by emptying their MAC address lists.
-        for (String key: prefs.getAll().keySet()) {
-            if (key.startsWith(ALLOWED_BSSID_PREFIX) || key.startsWith(BLOCKED_BSSID_PREFIX))
-                editor.putStringSet(key, new HashSet<String>());
-        }
-
-        editor.commit();
+        Logger.d("Removing all trusted/untrusted hotspots");
+        trustStore.clearAll();
     }
 
     /**
      * Erase all known hotspots for a specific SSID.
      */
     public void clearBSSIDsForNetwork(String SSID) {
-        Log.d("PrivacyPolice", "Removing all known hotspots for network " + SSID);
-        SharedPreferences.Editor editor = prefs.edit();
-
-        // Erase all trusted network for this SSID, by emptying its MAC address list.
-        editor.putStringSet(ALLOWED_BSSID_PREFIX + SSID, new HashSet<String>());
-        // Erase all blocked network for this SSID
-        editor.putStringSet(BLOCKED_BSSID_PREFIX + SSID, new HashSet<String>());
-
-        editor.commit();
+        Logger.d("Removing all known hotspots for network %s", SSID);
+        trustStore.clearNetwork(SSID);
     }
 }
@@ -5,28 +5,31 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.net.wifi.ScanResult;
 import android.os.Bundle;
-import android.util.Log;
 import android.view.View;
 import android.widget.ListView;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import be.uhasselt.privacypolice.policy.AccessPointSafety;
+import be.uhasselt.privacypolice.policy.ScanIndex;
+import be.uhasselt.privacypolice.policy.TrustIndex;
+
 /**
  * Activity that allows the user to view and modify the stored list of allowed / blocked networks.
  * This activity contains only a list of the SSIDs, and the option (in the menu) to remove
  * all stored SSIDs.
  **/
 public class SSIDManagerActivity extends NetworkManagerActivity {
-    private ScanResultsChecker scanResultsChecker;
-
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        Log.v("PrivacyPolice", "Creating SSID manager activity");
+        Logger.v("Creating SSID manager activity");
 
-        scanResultsChecker = new ScanResultsChecker(this);
         adapter = new SSIDManagerAdapter();
         setListAdapter(adapter);
     }
@@ -75,29 +78,40 @@ public class SSIDManagerActivity extends NetworkManagerActivity {
 
     protected class SSIDManagerAdapter extends NetworkManagerAdapter {
         public void refresh() {
-            Log.v("PrivacyPolice", "Refreshing the network list adapter");
+            Logger.v("Refreshing the network list adapter");
             // Use an ArrayMap so we can put available networks at the top
             networkList = new ArrayList<>();
 
             // Combine the SSIDs that we know of with the SSIDs that are available.
             List<ScanResult> scanResults = wifiManager.getScanResults();
-            Set<String> knownSSIDs = prefs.getNonemptySSIDs();
+            ScanIndex scanIndex = new ScanIndex(ScanResultsChecker.toAccessPoints(scanResults));
+            // Take a snapshot, since the trust lists can change while we are building the list
+            Map<String, TrustIndex.NetworkCounts> networkCounts = new HashMap<>(prefs.getNetworkCounts());
+            Set<String> knownSSIDs = new HashSet<>(networkCounts.keySet());
 
             // Add currently available networks that are stored in the preferences to the list
             for (ScanResult scanResult : scanResults) {
                 if (knownSSIDs.contains(scanResult.SSID)) {
-                    ScanResultsChecker.AccessPointSafety networkSafety = scanResultsChecker.getNetworkSafety(scanResult.SSID, scanResults);
-                    networkList.add(new NetworkAvailability(scanResult.SSID, scanResult.level, networkSafety));
+                    AccessPointSafety networkSafety = ScanResultsChecker.getNetworkSafety(SSIDManagerActivity.this, prefs, scanResult.SSID, scanIndex);
+                    NetworkAvailability network = new NetworkAvailability(scanResult.SSID, scanResult.level, networkSafety);
+                    network.setDetails(getCountsText(networkCounts.get(scanResult.SSID)));
+                    networkList.add(network);
                     knownSSIDs.remove(scanResult.SSID);
                 }
             }
 
             // Add all other (non-available) saved SSIDs to the list
             for (String SSID : knownSSIDs) {
-                ScanResultsChecker.AccessPointSafety networkSafety = ScanResultsChecker.AccessPointSafety.UNKNOWN;
-                networkList.add(new NetworkAvailability(SSID, -9999, networkSafety));
+                AccessPointSafety networkSafety = AccessPointSafety.UNKNOWN;
+                NetworkAvailability network = new NetworkAvailability(SSID, -9999, networkSafety);
+                network.setDetails(getCountsText(networkCounts.get(SSID)));
+                networkList.add(network);
             }
             notifyDataSetChanged();
         }
+
+        private String getCountsText(TrustIndex.NetworkCounts counts) {
+            return getString(R.string.known_hotspot_counts, counts.allowed, counts.blocked);
+        }
     }
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package be.uhasselt.privacypolice;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import be.uhasselt.privacypolice.policy.ScanBurst;
+
+/**
+ * Collapses bursts of scan broadcasts into a single run of an action. The action runs once no new
+ * scan arrived for a given window (the trailing edge of the burst), or when the first scan of the
+ * burst has been waiting for the maximum delay, whichever comes first. Since the action always
+ * runs after the last scan of a burst arrived, the newest results are never dropped.
+ * When to run is decided by ScanBurst; this class schedules the runs on a handler.
+ */
+
+public class ScanCoalescer {
+    private final Handler handler;
+    private final ScanBurst burst;
+    private final Runnable action;
+
+    private final Runnable fire = new Runnable() {
+        @Override
+        public void run() {
+            burst.onRun();
+            action.run();
+        }
+    };
+
+    /**
+     * @param handler the handler on whose thread the action is run
+     * @param window the time (in ms) without new scans after which the action runs
+     * @param maxDelay the maximum time (in ms) the first scan of a burst may wait for the action
+     * @param action the action to run
+     */
+    public ScanCoalescer(Handler handler, long window, long maxDelay, Runnable action) {
+        this.handler = handler;
+        this.burst = new ScanBurst(window, maxDelay);
+        this.action = action;
+    }
+
+    /**
+     * Notify the coalescer that new scan results are available
+     */
+    public synchronized void submit() {
+        long runAt = burst.onScan(SystemClock.uptimeMillis());
+        handler.removeCallbacks(fire);
+        handler.postAtTime(fire, runAt);
+    }
+}
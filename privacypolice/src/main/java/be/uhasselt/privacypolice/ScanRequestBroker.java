@@ -0,0 +1,177 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package be.uhasselt.privacypolice;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.net.wifi.WifiManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Central place through which all of our Wi-Fi scans are requested. Android 9.0 and up throttles
+ * the number of scans an app can start (4 every 2 minutes in the foreground, 1 every 30 minutes in
+ * the background), and throttled requests fail silently. The broker keeps track of the scans we
+ * started, so it knows how many we have left:
+ *  - requests that arrive while a scan is already running are merged into it;
+ *  - when no scan can be started, the latest (cached) scan results are checked instead, and
+ *    important requests are retried as soon as the budget allows it;
+ *  - the last scan of the foreground budget is kept for requests made by the user.
+ */
+
+public class ScanRequestBroker {
+    // In increasing order of urgency
+    public enum Priority {
+        PERIODIC, // Scheduled by WakelockHandler
+        PREFERENCE, // The user changed a preference
+        USER // The user allowed a network, and is waiting for us to connect to it
+    }
+
+    // Throttling limits of Android 9.0 and up
+    private static final int FOREGROUND_SCAN_BUDGET = 4;
+    private static final long FOREGROUND_SCAN_WINDOW = 2 * 60 * 1000;
+    private static final int BACKGROUND_SCAN_BUDGET = 1;
+    private static final long BACKGROUND_SCAN_WINDOW = 30 * 60 * 1000;
+    // Consider a scan to be finished after this time, even if we didn't get its results
+    private static final long SCAN_TIMEOUT = 10 * 1000;
+
+    private static ScanRequestBroker instance = null;
+
+    private final Context context;
+    private final WifiManager wifiManager;
+    private final Handler handler;
+    // Times (in SystemClock.elapsedRealtime()) at which we started our most recent scans, as a
+    // ring buffer holding enough scans to cover the largest budget
+    private final long[] scanTimes = new long[FOREGROUND_SCAN_BUDGET];
+    private int nextScanIndex = 0;
+    // Time at which the scan that we are waiting for was started, or 0 if we aren't waiting
+    private long runningScanTime = 0;
+    // The most urgent request that is waiting for budget to become available, or null
+    private Priority deferredPriority = null;
+
+    private final Runnable retry = new Runnable() {
+        @Override
+        public void run() {
+            Priority priority;
+            synchronized (ScanRequestBroker.this) {
+                priority = deferredPriority;
+                deferredPriority = null;
+            }
+            if (priority != null)
+                requestScan(priority);
+        }
+    };
+
+    public static synchronized ScanRequestBroker getInstance(Context ctx) {
+        if (instance == null) {
+            instance = new ScanRequestBroker(ctx);
+        }
+        return instance;
+    }
+
+    private ScanRequestBroker(Context ctx) {
+        // Use getApplicationContext(), since the broker lives as long as our process
+        this.context = ctx.getApplicationContext();
+        this.wifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+        this.handler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Request a Wi-Fi scan. If a scan is already running, the request is merged into it. If no
+     * scan can be started, the latest scan results are checked instead.
+     * @param priority how urgently the scan is needed
+     */
+    public synchronized void requestScan(Priority priority) {
+        long now = SystemClock.elapsedRealtime();
+        if (runningScanTime != 0 && now - runningScanTime < SCAN_TIMEOUT) {
+            Logger.v("Merging %s scan request into running scan", priority);
+            return;
+        }
+        runningScanTime = 0;
+
+        long availableAt = getBudgetAvailableAt(priority, now);
+        if (availableAt <= now) {
+            Logger.v("Starting %s scan", priority);
+            scanTimes[nextScanIndex] = now;
+            nextScanIndex = (nextScanIndex + 1) % scanTimes.length;
+            Metrics.increment(Metrics.Counter.SCANS_REQUESTED);
+            Metrics.increment(Metrics.Counter.BINDER_CALLS);
+            if (wifiManager.startScan()) {
+                runningScanTime = now;
+                return;
+            }
+            Logger.w("Scan request was refused");
+        } else if (priority != Priority.PERIODIC) {
+            // The periodic scans are rescheduled by WakelockHandler itself
+            Logger.v("No scan budget left, retrying %s scan in %d ms", priority, availableAt - now);
+            Metrics.increment(Metrics.Counter.SCANS_DEFERRED);
+            if (deferredPriority == null || priority.compareTo(deferredPriority) > 0)
+                deferredPriority = priority;
+            handler.removeCallbacks(retry);
+            handler.postDelayed(retry, availableAt - now);
+        }
+        // Make do with the results we already have, which might have changed since we last
+        // checked them (e.g. because another app scanned)
+        ScanResultsChecker.checkCachedResults(context);
+    }
+
+    /**
+     * Called when the results of a scan (ours, or one requested by someone else) are available
+     */
+    public synchronized void onScanResults() {
+        runningScanTime = 0;
+    }
+
+    /**
+     * Get the time at which a scan with the given priority can be started without being throttled
+     * @param now the current time, in SystemClock.elapsedRealtime()
+     */
+    private long getBudgetAvailableAt(Priority priority, long now) {
+        if (android.os.Build.VERSION.SDK_INT < 28)
+            return now; // No throttling
+        int budget;
+        long window;
+        if (isForeground()) {
+            budget = FOREGROUND_SCAN_BUDGET;
+            window = FOREGROUND_SCAN_WINDOW;
+            // Keep the last scan for the user
+            if (priority != Priority.USER)
+                budget--;
+        } else {
+            budget = BACKGROUND_SCAN_BUDGET;
+            window = BACKGROUND_SCAN_WINDOW;
+        }
+        // The scan that was started budget scans ago has to be out of the window
+        long scanTime = scanTimes[(nextScanIndex - budget + scanTimes.length) % scanTimes.length];
+        if (scanTime == 0)
+            return now;
+        return Math.max(now, scanTime + window);
+    }
+
+    /**
+     * Whether Android considers our app to be in the foreground (when throttling scans)
+     */
+    private static boolean isForeground() {
+        ActivityManager.RunningAppProcessInfo processInfo = new ActivityManager.RunningAppProcessInfo();
+        ActivityManager.getMyMemoryState(processInfo);
+        return processInfo.importance <= ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND;
+    }
+}
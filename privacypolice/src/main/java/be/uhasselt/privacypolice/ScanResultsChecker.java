@@ -22,65 +22,118 @@ package be.uhasselt.privacypolice;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
 import android.net.wifi.ScanResult;
-import android.net.wifi.WifiConfiguration;
 import android.net.wifi.WifiManager;
 import android.os.Handler;
-import android.util.Log;
+import android.os.HandlerThread;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
+
+import be.uhasselt.privacypolice.policy.AccessPoint;
+import be.uhasselt.privacypolice.policy.AccessPointSafety;
+import be.uhasselt.privacypolice.policy.BSSIDCodec;
+import be.uhasselt.privacypolice.policy.ConfiguredNetwork;
+import be.uhasselt.privacypolice.policy.PolicyDecision;
+import be.uhasselt.privacypolice.policy.PolicyEngine;
+import be.uhasselt.privacypolice.policy.PolicySettings;
+import be.uhasselt.privacypolice.policy.ScanFingerprint;
+import be.uhasselt.privacypolice.policy.ScanIndex;
 
 /**
- * This class contains the actual logic for deciding whether a network connection is allowed.
- * It receives the broadcast intents for new scan results, in order to decide whether a network is
- * available. It then checks whether we trust the AP's MAC address, based on the user's configuration.
+ * This class receives the broadcast intents for new scan results, in order to decide whether a
+ * network is available. The actual decision on whether we trust the APs' MAC addresses, based on
+ * the user's configuration, is left to the PolicyEngine; this class applies its decisions.
  */
 
 public class ScanResultsChecker extends BroadcastReceiver {
 
-    public enum AccessPointSafety {
-        TRUSTED, UNTRUSTED, UNKNOWN
-    }
+    // Re-evaluate unchanged scans at least this often, to catch changes made outside of our app
+    private static final long MAX_SKIP_DURATION = 5 * 60 * 1000;
 
-    // The last time we checked all networks.
-    private static long lastCheck = 0;
+    // Older devices might try to scan constantly. Allow them some rest by only checking once no new
+    // scan came in for 0.5 seconds, but make sure that the newest results are checked within 2 seconds.
+    private static final long COALESCE_WINDOW = 500;
+    private static final long MAX_COALESCE_DELAY = 2000;
+
+    // All scans are checked on a single worker thread, so the main thread is never blocked and
+    // the results of subsequent scans are applied in order. The coalescer makes sure that at most
+    // one check is waiting at any time: scans that arrive before it started are superseded by it.
+    private static ScanCoalescer scanCoalescer = null;
+    // Broadcasts that are kept alive (using goAsync()) until the check covering them has finished
+    private static final List<PendingResult> pendingBroadcasts = new ArrayList<>();
+    // The fingerprint of the last scan that was evaluated, together with the state it was evaluated in
+    private static long lastFingerprint = 0;
+    private static long lastPreferencesVersion = -1;
+    private static long lastNetworksVersion = -1;
+    private static boolean lastLocationEnabled = false;
+    private static long lastEvaluation = 0;
+    // Created once, when the first broadcast is received. The objects that read the preferences
+    // or the trust store are created on the worker thread, which is the only thread using them.
     private static PreferencesStorage prefs = null;
     private static WifiManager wifiManager = null;
-    private static ConnectivityManager connectivityManager = null;
     private static NotificationHandler notificationHandler = null;
+    private static ConfiguredNetworkCache configuredNetworkCache = null;
+    private static WifiCommander wifiCommander = null;
+    private static PolicyEngine policyEngine = null;
+    private static ConnectionStateMachine connectionStateMachine = null;
     private static Context context = null;
 
     /**
      * Default constructor allowing to use this class as a receiver.
-     * DO NOT USE THIS CONSTRUCTOR WHEN INSTANTIATING THIS CLASS MANUALLY. Pass the context as the
-     * single parameter to this constructor instead.
+     * Other classes should use the static methods instead of instantiating this class.
      */
     public ScanResultsChecker() {
         super();
     }
 
     /**
-     * Non-default constructor which allows other classes to instantiate this class with a given context
-     * @param ctx Context of the caller
-     */
-    public ScanResultsChecker(Context ctx) {
-        init(ctx);
-    }
-
-    /**
-     * Initialize static variables, depending on the current context
+     * Create the worker thread and everything it uses, unless that was done already
      * @param ctx The current context
      */
-    public void init(Context ctx) {
+    private static synchronized void start(Context ctx) {
+        if (scanCoalescer != null)
+            return;
         // Use getApplicationContext() to prevent memory leaks on devices < Android N
-        wifiManager =  (WifiManager) ctx.getApplicationContext().getSystemService(Context.WIFI_SERVICE);
-        connectivityManager = (ConnectivityManager) ctx.getSystemService(Context.CONNECTIVITY_SERVICE);
-        prefs = new PreferencesStorage(ctx);
-        notificationHandler = new NotificationHandler(ctx);
-        context = ctx;
+        final Context appContext = ctx.getApplicationContext();
+        context = appContext;
+        wifiManager = (WifiManager) appContext.getSystemService(Context.WIFI_SERVICE);
+        configuredNetworkCache = ConfiguredNetworkCache.getInstance(appContext);
+        wifiCommander = new WifiCommander(wifiManager, configuredNetworkCache);
+        HandlerThread workerThread = new HandlerThread("PrivacyPolice-scans");
+        workerThread.start();
+        Handler workerHandler = new Handler(workerThread.getLooper());
+        connectionStateMachine = new ConnectionStateMachine(appContext, workerHandler);
+        // Loading the preferences and the trusted access points can take a while, so keep it off
+        // the main thread. This runs before any check, since those are posted to the same handler.
+        workerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                prefs = new PreferencesStorage(appContext);
+                notificationHandler = new NotificationHandler(appContext);
+                policyEngine = new PolicyEngine(prefs.getTrustStore());
+            }
+        });
+        scanCoalescer = new ScanCoalescer(workerHandler, COALESCE_WINDOW, MAX_COALESCE_DELAY,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        // Every broadcast received up until now is covered by this check
+                        List<PendingResult> handledBroadcasts;
+                        synchronized (pendingBroadcasts) {
+                            handledBroadcasts = new ArrayList<>(pendingBroadcasts);
+                            pendingBroadcasts.clear();
+                        }
+                        if (handledBroadcasts.size() > 1)
+                            Metrics.add(Metrics.Counter.BROADCASTS_COALESCED, handledBroadcasts.size() - 1);
+                        try {
+                            checkLatestResults();
+                        } finally {
+                            for (PendingResult pendingResult : handledBroadcasts)
+                                pendingResult.finish();
+                        }
+                    }
+                });
     }
 
     /**
@@ -89,26 +142,76 @@ public class ScanResultsChecker extends BroadcastReceiver {
      *  - BOOT_COMPLETED
      */
     public void onReceive(Context ctx, Intent intent) {
-        if (wifiManager == null) // TODO: make this class a singleton
-            init(ctx);
+        start(ctx);
         // Make sure the wakelockHandler keeps running (to prevent Android 6.0 and up from completely suspending our operations)
         WakelockHandler.getInstance(ctx).ensureAwake();
 
-        // WiFi scan performed
-        // Older devices might try to scan constantly. Allow them some rest by checking max. once every 0.5 seconds
-        if (System.currentTimeMillis() - lastCheck < 500)
-            return;
-        lastCheck = System.currentTimeMillis();
+        if (WifiManager.SCAN_RESULTS_AVAILABLE_ACTION.equals(intent.getAction())) {
+            Metrics.increment(Metrics.Counter.BROADCASTS_RECEIVED);
+            ScanRequestBroker.getInstance(ctx).onScanResults();
+        }
 
+        // WiFi scan performed. Check the results on the worker thread once the burst of scans (if
+        // any) is over, and keep the broadcast alive until then.
+        PendingResult pendingResult = goAsync();
+        if (pendingResult != null) {
+            synchronized (pendingBroadcasts) {
+                pendingBroadcasts.add(pendingResult);
+            }
+        }
+        scanCoalescer.submit();
+    }
+
+    /**
+     * Check the scan results that the WifiManager currently has, without waiting for a new scan.
+     * Used when we could not start a scan ourselves.
+     */
+    public static void checkCachedResults(Context ctx) {
+        start(ctx);
+        scanCoalescer.submit();
+    }
+
+    /**
+     * Check the latest scan results, unless they did not change since the last check
+     */
+    private static void checkLatestResults() {
         // Check our location permission, and request if needed
         LocationAccess.checkAccessDisplayNotification(context);
 
         try {
-            List<ScanResult> scanResults = wifiManager.getScanResults();
-            Log.d("PrivacyPolice", "Wi-Fi scan performed, results are: " + scanResults.toString());
-            checkResults(scanResults);
+            long evaluationStart = Metrics.startTimer();
+            Metrics.increment(Metrics.Counter.BINDER_CALLS);
+            List<AccessPoint> scanResults = toAccessPoints(wifiManager.getScanResults());
+            Metrics.record(Metrics.Stage.SCAN_FETCH, evaluationStart);
+            prefs.onAccessPointsSeen(scanResults);
+            // Skip the evaluation if neither the access points in range nor our settings changed
+            long fingerprint = ScanFingerprint.of(scanResults);
+            long preferencesVersion = prefs.getVersion();
+            long networksVersion = configuredNetworkCache.getVersion();
+            boolean locationEnabled = LocationAccess.isNetworkLocationEnabled(context);
+            long now = System.currentTimeMillis();
+            // Let the scheduler scan less often while nothing changes
+            WakelockHandler.getInstance(context).onScanResults(fingerprint);
+            if (fingerprint == lastFingerprint && preferencesVersion == lastPreferencesVersion
+                    && networksVersion == lastNetworksVersion && locationEnabled == lastLocationEnabled && now - lastEvaluation < MAX_SKIP_DURATION) {
+                Logger.v("Scan results did not change since last check, skipping");
+                Metrics.increment(Metrics.Counter.EVALUATIONS_SKIPPED);
+                return;
+            }
+
+            // Only the prompted access points are logged by name, to keep the log small in busy places
+            Logger.d("Wi-Fi scan performed, %d access points in range", scanResults.size());
+            Metrics.increment(Metrics.Counter.EVALUATIONS_RUN);
+            if (checkResults(scanResults)) {
+                lastFingerprint = fingerprint;
+                lastPreferencesVersion = preferencesVersion;
+                lastNetworksVersion = networksVersion;
+                lastLocationEnabled = locationEnabled;
+                lastEvaluation = now;
+            }
+            Metrics.record(Metrics.Stage.EVALUATION, evaluationStart);
         } catch (NullPointerException npe) {
-            Log.e("PrivacyPolice", "Null pointer exception when handling networks. Wi-Fi was probably suddenly disabled after a scan", npe);
+            Logger.e("Null pointer exception when handling networks. Wi-Fi was probably suddenly disabled after a scan", npe);
         }
     }
 
@@ -116,150 +219,88 @@ public class ScanResultsChecker extends BroadcastReceiver {
      * Check which networks should be enabled, and enable them accordingly. Ask for user input when
      * a network's safety level can not be determined
      * @param scanResults The results of the last network scan
+     * @return whether all networks could be checked
      */
-    private void checkResults(List<ScanResult> scanResults) {
-        // Keep whether the getNetworkSafety function asked the user for input (to know whether we
-        // have to disable any notifications afterwards, and to keep the UX as smooth as possible).
-        // Alternatively, we would disable previous notifications here, but that would lead to the
-        // notification being jittery (disappearing and re-appearing instantly, instead of just
-        // updating).
-        boolean notificationShown = false;
-
+    private static boolean checkResults(List<AccessPoint> scanResults) {
         // Collect number of found networks, if allowed by user
         /*Analytics analytics = new Analytics(ctx);
         analytics.scanCompleted(scanResults.size());*/
 
-        List<WifiConfiguration> networkList = wifiManager.getConfiguredNetworks();
+        long stageStart = Metrics.startTimer();
+        List<ConfiguredNetwork> networkList = configuredNetworkCache.getNetworks();
+        Metrics.record(Metrics.Stage.NETWORK_FETCH, stageStart);
         if (networkList == null) {
-            Log.i("PrivacyPolice", "WifiManager did not return any configured networks. This is "+
+            Logger.i("WifiManager did not return any configured networks. This is "+
                 "most likely caused by background location services being allowed to scan for " +
                 "Wi-Fi networks, while Wi-Fi is disabled. Keep all networks as before.");
-            return;
-        }
-        // Check for every network in our network list whether it should be enabled
-        for (WifiConfiguration network : networkList) {
-            AccessPointSafety networkSafety = getNetworkSafety(network, scanResults);
-            if (networkSafety == AccessPointSafety.TRUSTED) {
-                Log.i("PrivacyPolice", "Enabling " + network.SSID);
-                connectTo(network.networkId);
-            } else if (networkSafety == AccessPointSafety.UNTRUSTED) {
-                // Make sure all other networks are disabled, by disabling them separately
-                // (See comment in connectTo() method to see why we don't disable all of them at the
-                // same time)
-                wifiManager.disableNetwork(network.networkId);
-            } else if (networkSafety == AccessPointSafety.UNKNOWN) {
-                wifiManager.disableNetwork(network.networkId);
-                notificationShown = true;
-            }
+            return false;
         }
+        // Group the scan results by SSID once, instead of going through them for every network
+        stageStart = Metrics.startTimer();
+        ScanIndex scanIndex = new ScanIndex(scanResults);
+        PolicyDecision decision = policyEngine.evaluate(getPolicySettings(context, prefs), networkList, scanIndex,
+                notificationHandler.getShownBSSIDs());
+        Metrics.record(Metrics.Stage.DECISION, stageStart);
+        Logger.d("Enabling %d networks, disabling %d, asking about %d", decision.trusted.size(), decision.untrusted.size(),
+                decision.prompts.size());
+        for (AccessPoint accessPoint : decision.spoofed)
+            Logger.w("Spoofed network for %s detected! (BSSID is %s)", accessPoint.SSID, BSSIDCodec.format(accessPoint.BSSID));
 
-        if (!notificationShown) {
-            // Disable previous notifications, to make sure that we only request permission for the
-            // currently available networks (and not at the wrong location)
-            notificationHandler.disableNetworkNotifications();
-        }
-    }
+        stageStart = Metrics.startTimer();
+        for (ConfiguredNetwork network : decision.trusted)
+            wifiCommander.enable(network);
+        // Make sure all other networks are disabled, by disabling them separately
+        // (See comment in WifiCommander.apply() to see why we don't disable all of them at
+        // the same time)
+        for (ConfiguredNetwork network : decision.untrusted)
+            wifiCommander.disable(network);
+        // Only pass on the networks whose state actually changed, and connect at most once
+        if (wifiCommander.apply())
+            connectionStateMachine.connect();
+        Metrics.record(Metrics.Stage.WIFI_COMMANDS, stageStart);
 
-    /**
-     * Enable a given Wi-Fi network, and force Android to connect to it. This function makes sure
-     * that connecting also works in Android 5.0 and up.
-     * @param networkId The id of the network (found in its configuration) to enable
-     */
-    private void connectTo(int networkId) {
-        // Do not disable other networks, as multiple networks may be available
-        wifiManager.enableNetwork(networkId, false);
-        // If we aren't already connected to a network, make sure that Android connects.
-        // This is required for devices running Android Lollipop (5.0) and up, because
-        // they would otherwise never connect.
-        wifiManager.reconnect();
-        // In some instances (since wpa_supplicant 2.3), even the previous is not sufficient
-        // Check if we are in a CONNECTING state, or reassociate to force connection
-        Handler handler = new Handler();
-        // Wait for 1 second before checking
-        handler.postDelayed(new Runnable() {
-            public void run() {
-                NetworkInfo wifiState = connectivityManager.getNetworkInfo(ConnectivityManager.TYPE_WIFI);
-                if (!wifiState.isConnectedOrConnecting()) {
-                    Log.i("PrivacyPolice", "Reassociating, because WifiManager doesn't seem to be eager to reconnect.");
-                    wifiManager.reassociate();
-                }
-            }
-        }, 1000);
+        // Ask the user about all unknown networks at once, so the notification handler can update
+        // the notifications in place instead of removing them first (which would make them
+        // jittery, disappearing and re-appearing instantly). This also removes previous
+        // notifications, to make sure that we only request permission for the currently available
+        // networks (and not at the wrong location)
+        notificationHandler.showNetworkPermissions(decision.prompts);
+        return true;
     }
 
     /**
-     * Checks whether we should allow connection to a given network, based on the user's preferences
-     * It will also ask the user if it is unknown whether the network should be trusted.
-     * @param network The network that should be checked
-     * @param scanResults The networks that are currently available
+     * Checks whether we should allow connection to a given SSID, based on the user's preferences.
+     * Does not ask the user anything.
+     * @param ctx The current context
+     * @param preferences The user's preferences
+     * @param SSID The SSID of the network that should be checked
+     * @param scanIndex The networks that are currently available
      * @return TRUSTED or UNTRUSTED, based on the user's preferences, or UNKNOWN if the user didn't
      *          specify anything yet
      */
-    public AccessPointSafety getNetworkSafety(WifiConfiguration network, List<ScanResult> scanResults) {
-        // If all settings are disabled by the user, then allow every network
-        // This effectively disables all of the app's functionalities
-        if (!(prefs.getEnableOnlyAvailableNetworks() || prefs.getOnlyConnectToKnownAccessPoints())) {
-            return AccessPointSafety.TRUSTED; // Allow every network
-        }
-        // If location access is disabled by the user (or if it is not granted to our app), allow
-        // every network (as otherwise PrivacyPolice would block normal operation of the phone).
-        // Rationale: a huge warning is displayed both as a notification, and in the main activity
-        // when the user does not enable location access. It is unfortunately the only way for us
-        // to view scan results
-        // Some devices still allow scan results to be passed on even if the location is disabled.
-        // In this case, we operate as normally by checking if any network is in range
-        if (!LocationAccess.isNetworkLocationEnabled(context) && scanResults.size() == 0) {
-            return AccessPointSafety.TRUSTED; // Allow every network
-        }
-
-        // Always enable hidden networks, since they *need* to use directed probe requests
-        // in order to be discovered. Note that using hidden SSID's does not add any
-        // real security , so it's best to avoid them whenever possible.
-        if (network.hiddenSSID)
-            return AccessPointSafety.TRUSTED;
-
-        // Strip double quotes (") from the SSID string
-        String plainSSID = network.SSID.substring(1, network.SSID.length() - 1);
+    public static AccessPointSafety getNetworkSafety(Context ctx, PreferencesStorage preferences, String SSID, ScanIndex scanIndex) {
+        PolicyEngine engine = new PolicyEngine(preferences.getTrustStore());
+        return engine.getNetworkSafety(getPolicySettings(ctx, preferences), SSID, scanIndex, null);
+    }
 
-        return getNetworkSafety(plainSSID, scanResults);
+    private static PolicySettings getPolicySettings(Context ctx, PreferencesStorage preferences) {
+        return new PolicySettings(preferences.getEnableOnlyAvailableNetworks(), preferences.getOnlyConnectToKnownAccessPoints(),
+                LocationAccess.isNetworkLocationEnabled(ctx));
     }
 
     /**
-     * Checks whether we should allow connection to a given SSID, based on the user's preferences
-     * It will also ask the user if it is unknown whether the network should be trusted.
-     * @param SSID The SSID of the network that should be checked
-     * @param scanResults The networks that are currently available
-     * @return TRUSTED or UNTRUSTED, based on the user's preferences, or UNKNOWN if the user didn't
-     *          specify anything yet
+     * Convert the results of a Wi-Fi scan to the form used by the policy engine
+     * @param scanResults the results, as returned by WifiManager.getScanResults()
      */
-    public AccessPointSafety getNetworkSafety(String SSID, List<ScanResult> scanResults) {
+    public static List<AccessPoint> toAccessPoints(List<ScanResult> scanResults) {
+        List<AccessPoint> accessPoints = new ArrayList<>(scanResults.size());
         for (ScanResult scanResult : scanResults) {
-            if (scanResult.SSID.equals(SSID)) {
-                // Check whether the user wants to filter by MAC address
-                if (!prefs.getOnlyConnectToKnownAccessPoints()) { // Any MAC address is fair game
-                    // Enabling now makes sure that we only want to connect when it is in range
-                    return AccessPointSafety.TRUSTED;
-                } else { // Check access point's MAC address
-                    // Check if the MAC address is in the list of allowed MAC's for this SSID
-                    Set<String> allowedBSSIDs = prefs.getAllowedBSSIDs(scanResult.SSID);
-                    if (allowedBSSIDs.contains(scanResult.BSSID)) {
-                        return AccessPointSafety.TRUSTED;
-                    } else {
-                        // Not an allowed BSSID
-                        if (prefs.getBlockedBSSIDs(scanResult.SSID).contains(scanResult.BSSID)) {
-                            // This SSID was explicitly blocked by the user!
-                            Log.w("PrivacyPolice", "Spoofed network for " + scanResult.SSID + " detected! (BSSID is " + scanResult.BSSID + ")");
-                            return AccessPointSafety.UNTRUSTED;
-                        } else {
-                            // We don't know yet whether the user wants to allow this network
-                            // Ask the user what needs to be done
-                            notificationHandler.askNetworkPermission(scanResult.SSID, scanResult.BSSID);
-                            return AccessPointSafety.UNKNOWN;
-                        }
-                    }
-                }
-            }
+            long BSSID = BSSIDCodec.parse(scanResult.BSSID);
+            // Without a valid MAC address, the access point can neither be trusted nor asked about
+            if (BSSID == BSSIDCodec.INVALID)
+                continue;
+            accessPoints.add(new AccessPoint(scanResult.SSID, BSSID, scanResult.level, scanResult.capabilities));
         }
-        return AccessPointSafety.UNTRUSTED; // Network not in range
+        return accessPoints;
     }
 }
@@ -0,0 +1,360 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package be.uhasselt.privacypolice;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import be.uhasselt.privacypolice.policy.LongHashSet;
+import be.uhasselt.privacypolice.policy.TrustIndex;
+import be.uhasselt.privacypolice.policy.TrustListReader;
+import be.uhasselt.privacypolice.policy.TrustListWriter;
+
+/**
+ * SQLite database holding the user's decisions on access points: one row per SSID, BSSID and
+ * verdict (allowed or blocked). Unlike the shared preferences, a change only writes the rows
+ * involved, instead of rewriting every decision ever made.
+ */
+
+public class TrustDatabase extends SQLiteOpenHelper {
+    private static final String DATABASE_NAME = "trust.db";
+    private static final int DATABASE_VERSION = 2;
+
+    static final String TABLE = "access_points";
+    static final String COLUMN_SSID = "ssid";
+    // The MAC address, as returned by BSSIDCodec.parse()
+    static final String COLUMN_BSSID = "bssid";
+    static final String COLUMN_VERDICT = "verdict";
+    // Times (in System.currentTimeMillis()) at which the access point was first and last seen
+    static final String COLUMN_FIRST_SEEN = "first_seen";
+    static final String COLUMN_LAST_SEEN = "last_seen";
+
+    static final int VERDICT_BLOCKED = 0;
+    static final int VERDICT_ALLOWED = 1;
+
+    // Largest MAC address that BSSIDCodec.parse() can return
+    private static final long MAX_BSSID = 0xFFFFFFFFFFFFL;
+
+    /**
+     * A single access point in the database
+     */
+    static final class Entry {
+        final String SSID;
+        final long BSSID;
+        final boolean allowed;
+
+        Entry(String SSID, long BSSID, boolean allowed) {
+            this.SSID = SSID;
+            this.BSSID = BSSID;
+            this.allowed = allowed;
+        }
+    }
+
+    private final Context ctx;
+
+    public TrustDatabase(Context ctx) {
+        super(ctx.getApplicationContext(), DATABASE_NAME, null, DATABASE_VERSION);
+        this.ctx = ctx.getApplicationContext();
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + COLUMN_SSID + " TEXT NOT NULL, "
+                + COLUMN_BSSID + " INTEGER NOT NULL, "
+                + COLUMN_VERDICT + " INTEGER NOT NULL, "
+                + COLUMN_FIRST_SEEN + " INTEGER NOT NULL, "
+                + COLUMN_LAST_SEEN + " INTEGER NOT NULL, "
+                // Also serves as the index for lookups by SSID
+                + "UNIQUE (" + COLUMN_SSID + ", " + COLUMN_VERDICT + ", " + COLUMN_BSSID + "))");
+        db.execSQL("CREATE INDEX " + TABLE + "_bssid ON " + TABLE + " (" + COLUMN_BSSID + ")");
+        createLastSeenIndex(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2)
+            createLastSeenIndex(db);
+    }
+
+    /**
+     * Index used to find the access points that were not seen for the longest time
+     */
+    private static void createLastSeenIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX " + TABLE + "_last_seen ON " + TABLE + " (" + COLUMN_LAST_SEEN + ")");
+    }
+
+    private static int toVerdict(boolean allowed) {
+        return allowed ? VERDICT_ALLOWED : VERDICT_BLOCKED;
+    }
+
+    /**
+     * Fill an index with all access points in the database
+     */
+    public void load(TrustIndex index) {
+        Cursor cursor = getReadableDatabase().query(TABLE, new String[]{COLUMN_SSID, COLUMN_VERDICT, COLUMN_BSSID},
+                null, null, null, null, COLUMN_SSID + ", " + COLUMN_VERDICT);
+        try {
+            // Rows are sorted, so every SSID and verdict forms a single run of rows
+            String SSID = null;
+            int verdict = -1;
+            LongHashSet BSSIDs = null;
+            while (cursor.moveToNext()) {
+                String rowSSID = cursor.getString(0);
+                int rowVerdict = cursor.getInt(1);
+                if (BSSIDs == null || rowVerdict != verdict || !rowSSID.equals(SSID)) {
+                    if (BSSIDs != null)
+                        index.put(SSID, verdict == VERDICT_ALLOWED, BSSIDs);
+                    SSID = rowSSID;
+                    verdict = rowVerdict;
+                    BSSIDs = new LongHashSet();
+                }
+                BSSIDs.add(cursor.getLong(2));
+            }
+            if (BSSIDs != null)
+                index.put(SSID, verdict == VERDICT_ALLOWED, BSSIDs);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Replace the allowed and blocked access points of a single network in an index by the ones
+     * in the database
+     */
+    public void loadNetwork(String SSID, TrustIndex index) {
+        LongHashSet allowed = new LongHashSet();
+        LongHashSet blocked = new LongHashSet();
+        Cursor cursor = getReadableDatabase().query(TABLE, new String[]{COLUMN_VERDICT, COLUMN_BSSID},
+                COLUMN_SSID + " = ?", new String[]{SSID}, null, null, null);
+        try {
+            while (cursor.moveToNext())
+                (cursor.getInt(0) == VERDICT_ALLOWED ? allowed : blocked).add(cursor.getLong(1));
+        } finally {
+            cursor.close();
+        }
+        index.put(SSID, true, allowed);
+        index.put(SSID, false, blocked);
+    }
+
+    /**
+     * Add an access point, unless it is already in the database
+     */
+    public void insert(String SSID, long BSSID, boolean allowed) {
+        long now = System.currentTimeMillis();
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_SSID, SSID);
+        values.put(COLUMN_BSSID, BSSID);
+        values.put(COLUMN_VERDICT, toVerdict(allowed));
+        values.put(COLUMN_FIRST_SEEN, now);
+        values.put(COLUMN_LAST_SEEN, now);
+        getWritableDatabase().insertWithOnConflict(TABLE, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+    }
+
+    public void delete(String SSID, long BSSID, boolean allowed) {
+        getWritableDatabase().delete(TABLE, COLUMN_SSID + " = ? AND " + COLUMN_VERDICT + " = ? AND " + COLUMN_BSSID + " = ?",
+                new String[]{SSID, Integer.toString(toVerdict(allowed)), Long.toString(BSSID)});
+    }
+
+    /**
+     * Remember that an access point was seen, both in the allowed and in the blocked access points
+     * @param time the time (in System.currentTimeMillis()) at which it was seen
+     */
+    public void touch(String SSID, long BSSID, long time) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_LAST_SEEN, time);
+        getWritableDatabase().update(TABLE, values, COLUMN_SSID + " = ? AND " + COLUMN_BSSID + " = ? AND " + COLUMN_LAST_SEEN + " < ?",
+                new String[]{SSID, Long.toString(BSSID), Long.toString(time)});
+    }
+
+    public void deleteNetwork(String SSID) {
+        getWritableDatabase().delete(TABLE, COLUMN_SSID + " = ?", new String[]{SSID});
+    }
+
+    public void deleteAll() {
+        getWritableDatabase().delete(TABLE, null, null);
+    }
+
+    /**
+     * Add the given access points in a single transaction
+     * @param SSIDs the SSIDs of the access points
+     * @param BSSIDs the MAC addresses of the access points, in the same order
+     * @param allowed the verdicts for the access points, in the same order
+     */
+    public void insertAll(String[] SSIDs, long[] BSSIDs, boolean[] allowed) {
+        SQLiteDatabase db = getWritableDatabase();
+        long now = System.currentTimeMillis();
+        db.beginTransaction();
+        try {
+            SQLiteStatement statement = compileInsert(db);
+            for (int i = 0; i < SSIDs.length; i++)
+                executeInsert(statement, SSIDs[i], BSSIDs[i], allowed[i], now);
+            statement.close();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Compile a statement to add many access points quickly (see executeInsert()). Access points
+     * that are already in the database are left alone.
+     */
+    private SQLiteStatement compileInsert(SQLiteDatabase db) {
+        return db.compileStatement("INSERT OR IGNORE INTO " + TABLE + " ("
+                + COLUMN_SSID + ", " + COLUMN_BSSID + ", " + COLUMN_VERDICT + ", " + COLUMN_FIRST_SEEN + ", " + COLUMN_LAST_SEEN
+                + ") VALUES (?, ?, ?, ?, ?)");
+    }
+
+    /**
+     * Add an access point using a statement returned by compileInsert()
+     * @param now the time (in System.currentTimeMillis()) at which the access point is added
+     */
+    private static void executeInsert(SQLiteStatement statement, String SSID, long BSSID, boolean allowed, long now) {
+        statement.bindString(1, SSID);
+        statement.bindLong(2, BSSID);
+        statement.bindLong(3, toVerdict(allowed));
+        statement.bindLong(4, now);
+        statement.bindLong(5, now);
+        statement.executeInsert();
+    }
+
+    /**
+     * Add all access points of a trust list in a single transaction, reading them one at a time.
+     * An access point that is in the database with the opposite verdict is skipped, so the
+     * verdicts that are already known (and the first of two verdicts in the list) win.
+     * @param changedSSIDs the SSIDs of the networks to which access points were added are added
+     *                     to this set
+     * @return the number of access points that were added
+     * @throws IOException if the list could not be read or is invalid, in which case nothing is
+     *          added
+     */
+    public int importFrom(TrustListReader reader, Set<String> changedSSIDs) throws IOException {
+        SQLiteDatabase db = getWritableDatabase();
+        long now = System.currentTimeMillis();
+        int count = 0;
+        db.beginTransaction();
+        try {
+            SQLiteStatement insert = db.compileStatement("INSERT OR IGNORE INTO " + TABLE + " ("
+                    + COLUMN_SSID + ", " + COLUMN_BSSID + ", " + COLUMN_VERDICT + ", " + COLUMN_FIRST_SEEN + ", " + COLUMN_LAST_SEEN
+                    + ") SELECT ?1, ?2, ?3, ?4, ?4 WHERE NOT EXISTS (SELECT 1 FROM " + TABLE + " WHERE "
+                    + COLUMN_SSID + " = ?1 AND " + COLUMN_VERDICT + " = ?5 AND " + COLUMN_BSSID + " = ?2)");
+            try {
+                while (reader.next()) {
+                    boolean allowed = reader.isAllowed();
+                    insert.bindString(1, reader.getSSID());
+                    insert.bindLong(2, reader.getBSSID());
+                    insert.bindLong(3, toVerdict(allowed));
+                    insert.bindLong(4, now);
+                    insert.bindLong(5, toVerdict(!allowed));
+                    // Returns -1 if the access point was skipped or already known
+                    if (insert.executeInsert() != -1) {
+                        changedSSIDs.add(reader.getSSID());
+                        count++;
+                    }
+                }
+            } finally {
+                insert.close();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return count;
+    }
+
+    /**
+     * Write all access points to a trust list, sorted by SSID
+     * @return the number of access points written
+     */
+    public int exportTo(TrustListWriter writer) throws IOException {
+        Cursor cursor = getReadableDatabase().query(TABLE, new String[]{COLUMN_SSID, COLUMN_BSSID, COLUMN_VERDICT},
+                null, null, null, null, COLUMN_SSID + ", " + COLUMN_VERDICT + " DESC, " + COLUMN_BSSID);
+        int count = 0;
+        try {
+            while (cursor.moveToNext()) {
+                writer.write(cursor.getString(0), cursor.getLong(1), cursor.getInt(2) == VERDICT_ALLOWED);
+                count++;
+            }
+        } finally {
+            cursor.close();
+        }
+        return count;
+    }
+
+    /**
+     * @return the size of the database file, in bytes. Does not open the database, so this can be
+     *          called on the main thread.
+     */
+    public long getSize() {
+        return ctx.getDatabasePath(DATABASE_NAME).length();
+    }
+
+    /**
+     * Remove rows that can never match an access point, and give the space that is no longer used
+     * back to the file system. Must not be called while a transaction is open.
+     * @return the number of bytes by which the database file shrunk
+     */
+    public long compact() {
+        SQLiteDatabase db = getWritableDatabase();
+        long sizeBefore = getSize();
+        int removed = db.delete(TABLE, COLUMN_SSID + " = '' OR " + COLUMN_BSSID + " < 0 OR " + COLUMN_BSSID + " > " + MAX_BSSID,
+                null);
+        if (removed > 0)
+            Logger.w("Removed %d invalid access points from the database", removed);
+        // Rebuilds the database file without the pages that were freed by deleted rows
+        db.execSQL("VACUUM");
+        return sizeBefore - getSize();
+    }
+
+    /**
+     * Find the access points that should be forgotten, oldest (i.e. least recently seen) first
+     * @param notSeenSince forget all access points that were not seen since this time (in
+     *                     System.currentTimeMillis()), or 0 to not forget any based on their age
+     * @param maxEntries forget the oldest access points until at most this many are left, or 0 to
+     *                   keep any number of them
+     */
+    public List<Entry> findEvictable(long notSeenSince, int maxEntries) {
+        List<Entry> entries = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().query(TABLE, new String[]{COLUMN_SSID, COLUMN_BSSID, COLUMN_VERDICT, COLUMN_LAST_SEEN},
+                null, null, null, null, COLUMN_LAST_SEEN);
+        try {
+            int excess = maxEntries > 0 ? cursor.getCount() - maxEntries : 0;
+            // Both criteria select the oldest rows, so stop at the first row that meets neither
+            while (cursor.moveToNext()) {
+                if (entries.size() >= excess && cursor.getLong(3) >= notSeenSince)
+                    break;
+                entries.add(new Entry(cursor.getString(0), cursor.getLong(1), cursor.getInt(2) == VERDICT_ALLOWED));
+            }
+        } finally {
+            cursor.close();
+        }
+        return entries;
+    }
+}
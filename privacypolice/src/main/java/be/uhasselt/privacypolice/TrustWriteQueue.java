@@ -0,0 +1,340 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package be.uhasselt.privacypolice;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Write-behind queue for changes to the trust database. Changes are collected, and written in a
+ * single transaction on a background thread at most FLUSH_DELAY after the first of them was queued,
+ * so the thread making the change (often the main thread) never waits for the disk.
+ * A change that is made obsolete by a later one (e.g. an access point that is added and removed
+ * again) is never written. The queue does not keep any state that can be read: callers keep their
+ * own view of the data up to date (see PersistentTrustStore). Changes that are queued while
+ * holding the lock of the queue are always written in the same transaction.
+ * Pending changes are flushed when the device shuts down. Changes made shortly before our process
+ * is killed can still be lost, which is why the flush delay is kept short.
+ * The same background thread compacts the database, the first time it is used and every
+ * COMPACTION_INTERVAL after that.
+ */
+
+public class TrustWriteQueue {
+    // Maximum time between queueing a change and writing it to the database
+    private static final long FLUSH_DELAY = 2000;
+    private static final long COMPACTION_INTERVAL = 7 * 24 * 60 * 60 * 1000L;
+
+    // Preferences file holding the state of the compaction, apart from the user's preferences so
+    // that changing it does not cause the scan results to be checked again
+    private static final String STATE_FILE = "trust";
+    private static final String LAST_COMPACTION_KEY = "lastCompaction";
+    private static final String RECLAIMED_BYTES_KEY = "reclaimedBytes";
+
+    private enum Type {
+        INSERT, DELETE, TOUCH, DELETE_NETWORK, DELETE_ALL
+    }
+
+    private static final class Write {
+        final Type type;
+        final String SSID;
+        final long BSSID;
+        final boolean allowed;
+        // For TOUCH: the time at which the access point was seen
+        final long time;
+
+        Write(Type type, String SSID, long BSSID, boolean allowed, long time) {
+            this.type = type;
+            this.SSID = SSID;
+            this.BSSID = BSSID;
+            this.allowed = allowed;
+            this.time = time;
+        }
+    }
+
+    private final TrustDatabase database;
+    private final SharedPreferences state;
+    private final Handler handler;
+    // Makes sure batches are written one at a time, in the order in which they were taken
+    private final Object flushLock = new Object();
+    // Pending changes, in the order in which they have to be written. Keyed by the row (or rows)
+    // they change, so that a later change to the same row replaces the earlier one.
+    private LinkedHashMap<String, Write> pending = new LinkedHashMap<>();
+    private boolean flushScheduled = false;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+            compactIfDue();
+        }
+    };
+
+    private final Runnable compactRunnable = new Runnable() {
+        @Override
+        public void run() {
+            // Write pending changes first, so they are included in the compaction
+            flush();
+            doCompact();
+        }
+    };
+
+    private final BroadcastReceiver shutdownReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context ctx, Intent intent) {
+            Logger.d("Device is shutting down, writing pending trust changes");
+            flush();
+        }
+    };
+
+    public TrustWriteQueue(Context ctx, TrustDatabase database) {
+        this.database = database;
+        this.state = ctx.getApplicationContext().getSharedPreferences(STATE_FILE, Context.MODE_PRIVATE);
+        HandlerThread writerThread = new HandlerThread("PrivacyPolice-trust");
+        writerThread.start();
+        this.handler = new Handler(writerThread.getLooper());
+        // Use getApplicationContext(), since the receiver lives as long as our process
+        ctx.getApplicationContext().registerReceiver(shutdownReceiver, new IntentFilter(Intent.ACTION_SHUTDOWN));
+    }
+
+    public void insert(String SSID, long BSSID, boolean allowed) {
+        enqueueRow(new Write(Type.INSERT, SSID, BSSID, allowed, 0));
+    }
+
+    public void delete(String SSID, long BSSID, boolean allowed) {
+        enqueueRow(new Write(Type.DELETE, SSID, BSSID, allowed, 0));
+    }
+
+    /**
+     * Remember that an access point was seen at the given time (in System.currentTimeMillis())
+     */
+    public synchronized void touch(String SSID, long BSSID, long time) {
+        enqueue("T/" + BSSID + "/" + SSID, new Write(Type.TOUCH, SSID, BSSID, false, time));
+    }
+
+    public synchronized void deleteNetwork(String SSID) {
+        // Pending changes for this network no longer matter
+        Iterator<Write> iterator = pending.values().iterator();
+        while (iterator.hasNext()) {
+            if (SSID.equals(iterator.next().SSID))
+                iterator.remove();
+        }
+        enqueue("N/" + SSID, new Write(Type.DELETE_NETWORK, SSID, 0, false, 0));
+    }
+
+    public synchronized void deleteAll() {
+        // No pending change matters anymore
+        pending.clear();
+        enqueue("*", new Write(Type.DELETE_ALL, null, 0, false, 0));
+    }
+
+    private synchronized void enqueueRow(Write write) {
+        // The SSID goes last, since it is the only part that can contain a separator
+        enqueue((write.allowed ? "A/" : "B/") + write.BSSID + "/" + write.SSID, write);
+    }
+
+    private void enqueue(String key, Write write) {
+        // Remove the previous change first, so this one moves to the end of the queue
+        pending.remove(key);
+        pending.put(key, write);
+        Metrics.increment(Metrics.Counter.TRUST_WRITES_QUEUED);
+        if (!flushScheduled) {
+            // Later changes do not postpone the flush, so no change waits longer than FLUSH_DELAY
+            flushScheduled = true;
+            handler.postDelayed(flushRunnable, FLUSH_DELAY);
+        }
+    }
+
+    /**
+     * Write all pending changes to the database, in a single transaction. Blocks until they are
+     * written. If writing fails, the changes are queued again, ahead of the ones that were queued
+     * since, and written with the next flush.
+     * @return true if all pending changes were written
+     */
+    public boolean flush() {
+        synchronized (flushLock) {
+            LinkedHashMap<String, Write> writes;
+            synchronized (this) {
+                handler.removeCallbacks(flushRunnable);
+                flushScheduled = false;
+                if (pending.isEmpty())
+                    return true;
+                writes = pending;
+                pending = new LinkedHashMap<>();
+            }
+
+            long startTime = Metrics.startTimer();
+            try {
+                write(writes.values());
+            } catch (SQLiteException sqle) {
+                Logger.e("Could not write changes to the trusted access points, trying again later", sqle);
+                requeue(writes);
+                return false;
+            }
+            Metrics.record(Metrics.Stage.TRUST_FLUSH, startTime);
+            Metrics.increment(Metrics.Counter.TRUST_FLUSHES);
+            Logger.d("Wrote %d changes to the trusted access points", writes.size());
+            return true;
+        }
+    }
+
+    private void write(Collection<Write> writes) {
+        SQLiteDatabase db = database.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (Write write : writes) {
+                switch (write.type) {
+                    case INSERT:
+                        database.insert(write.SSID, write.BSSID, write.allowed);
+                        break;
+                    case DELETE:
+                        database.delete(write.SSID, write.BSSID, write.allowed);
+                        break;
+                    case TOUCH:
+                        database.touch(write.SSID, write.BSSID, write.time);
+                        break;
+                    case DELETE_NETWORK:
+                        database.deleteNetwork(write.SSID);
+                        break;
+                    case DELETE_ALL:
+                        database.deleteAll();
+                        break;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Put changes that could not be written back in front of the queue. A change that was queued
+     * since for the same row still replaces the earlier one, as if it was queued after them.
+     */
+    private synchronized void requeue(LinkedHashMap<String, Write> writes) {
+        for (Map.Entry<String, Write> newer : pending.entrySet()) {
+            if (newer.getValue().type == Type.DELETE_ALL) {
+                writes.clear();
+            } else if (newer.getValue().type == Type.DELETE_NETWORK) {
+                Iterator<Write> iterator = writes.values().iterator();
+                while (iterator.hasNext()) {
+                    if (newer.getValue().SSID.equals(iterator.next().SSID))
+                        iterator.remove();
+                }
+            }
+            writes.remove(newer.getKey());
+            writes.put(newer.getKey(), newer.getValue());
+        }
+        pending = writes;
+        if (!flushScheduled) {
+            flushScheduled = true;
+            handler.postDelayed(flushRunnable, FLUSH_DELAY);
+        }
+    }
+
+    /**
+     * Run a task on the background thread, before any change that is queued later is written
+     */
+    public void post(Runnable task) {
+        handler.post(task);
+    }
+
+    /**
+     * Run a task on the background thread, once all changes that are pending now are written.
+     * No other flush runs while the task does, so changes that are queued in the meantime are
+     * written after everything the task writes.
+     */
+    public void runAfterFlush(final Runnable task) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (flushLock) {
+                    flush();
+                    task.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Compact the database in the background, if that was not done in the last
+     * COMPACTION_INTERVAL (or never)
+     */
+    public void compactIfDue() {
+        if (System.currentTimeMillis() - getLastCompactionTime() >= COMPACTION_INTERVAL)
+            compact();
+    }
+
+    /**
+     * Compact the database in the background, e.g. after many access points were removed
+     */
+    public void compact() {
+        handler.removeCallbacks(compactRunnable);
+        handler.post(compactRunnable);
+    }
+
+    private void doCompact() {
+        synchronized (flushLock) {
+            long startTime = Metrics.startTimer();
+            long reclaimedBytes;
+            try {
+                reclaimedBytes = Math.max(0, database.compact());
+            } catch (SQLiteException sqle) {
+                Logger.e("Could not compact the trusted access points", sqle);
+                return;
+            }
+            Metrics.record(Metrics.Stage.TRUST_COMPACTION, startTime);
+            Metrics.increment(Metrics.Counter.TRUST_COMPACTIONS);
+            Metrics.add(Metrics.Counter.TRUST_BYTES_RECLAIMED, reclaimedBytes);
+            state.edit()
+                    .putLong(LAST_COMPACTION_KEY, System.currentTimeMillis())
+                    .putLong(RECLAIMED_BYTES_KEY, getReclaimedBytes() + reclaimedBytes)
+                    .commit();
+            Logger.i("Compacted the trusted access points, reclaiming %d bytes", reclaimedBytes);
+        }
+    }
+
+    /**
+     * @return the time (in System.currentTimeMillis()) of the last compaction, or 0 if the
+     *          database was never compacted
+     */
+    public long getLastCompactionTime() {
+        return state.getLong(LAST_COMPACTION_KEY, 0);
+    }
+
+    /**
+     * @return the number of bytes reclaimed by all compactions together
+     */
+    public long getReclaimedBytes() {
+        return state.getLong(RECLAIMED_BYTES_KEY, 0);
+    }
+}
@@ -24,8 +24,10 @@ import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.net.wifi.WifiManager;
-import android.util.Log;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.SystemClock;
 
 /**
  * This class makes sure that AppStandby on Android 6.0 and up does not interfere with PrivacyPolice
@@ -34,54 +36,173 @@ import android.util.Log;
  * by the OS, whereas PrivacyPolice (having no Activities that are visited regularly by the user)
  * is kept idle, preventing the results of a scan from being passed on to to the
  * PermissionChangeReceiver, and preventing Wi-Fi access for the entire OS.
- * It works by triggering an alarm approximately every 15 minutes, while still adhering to Android's
- * doze mode.
+ * Rather than waking up at a fixed interval, it schedules a single alarm at a time, and adapts the
+ * interval to the situation: every scan that does not change anything (or that happens while we
+ * are connected to a network, which we only allow for trusted networks) doubles the interval,
+ * while a changed scan, the screen turning on, or losing connectivity makes us scan again soon.
+ * The interval never drops below what Android allows apps in the background to scan.
  * TODO: check if this is still needed after the location services fix
  */
 public class WakelockHandler extends BroadcastReceiver {
+    // Bounds of the interval between our scans, on devices that don't throttle background scans.
+    // We never scan more often than the fixed 15 minute alarm of earlier versions did.
+    private static final long MIN_INTERVAL = AlarmManager.INTERVAL_FIFTEEN_MINUTES;
+    private static final long MAX_INTERVAL = 60 * 60 * 1000;
+    // Android 9.0 and up only allows apps in the background to scan once every 30 minutes
+    private static final long BACKGROUND_SCAN_INTERVAL_P = 30 * 60 * 1000;
+
     private static WakelockHandler instance = null;
     private Context context = null;
     private AlarmManager alarmManager = null;
+    private ConnectivityManager connectivityManager = null;
+
+    // Current interval between alarms
+    private long interval;
+    // Time (in SystemClock.elapsedRealtime()) at which the next alarm is due, or 0 if none is scheduled
+    private long nextAlarmTime = 0;
+    // Time at which we last requested a scan, or 0 if we didn't yet
+    private long lastScanTime = 0;
+    // The fingerprint of the last scan we were notified about
+    private long lastFingerprint = 0;
+    private boolean wifiConnected = false;
 
-    public static WakelockHandler getInstance(Context ctx) {
+    public static synchronized WakelockHandler getInstance(Context ctx) {
         if (instance == null) {
             instance = new WakelockHandler(ctx);
         }
         return instance;
     }
 
-    public WakelockHandler(Context ctx) {
-        this.context = ctx;
+    private WakelockHandler(Context ctx) {
+        // Use getApplicationContext(), since our receivers live as long as our process
+        this.context = ctx.getApplicationContext();
         this.alarmManager = (AlarmManager)context.getSystemService(Context.ALARM_SERVICE);
+        this.connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.interval = getMinInterval();
+        this.wifiConnected = isWifiConnected();
+        // These broadcasts can only be received by receivers that are registered at runtime
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_SCREEN_ON);
+        filter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
+        context.registerReceiver(this, filter);
         ensureAwake();
     }
 
-    public void scheduleAlarms() {
-        Intent wakeupIntent = new Intent(context, WakelockHandler.class);
-        PendingIntent pendingIntent = PendingIntent.getBroadcast(context, this.hashCode(), wakeupIntent, PendingIntent.FLAG_UPDATE_CURRENT);
-        alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME_WAKEUP, 0, AlarmManager.INTERVAL_FIFTEEN_MINUTES, pendingIntent);
+    public WakelockHandler() {
+        // Only used for the BroadcastReceiver aspect of this class
+        super();
     }
 
-    public void ensureAwake() {
-        Log.v("PrivacyPolice", "Ensuring we're still awake");
+    /**
+     * Schedule the next alarm at the given time, replacing the one that is currently scheduled
+     * @param triggerTime the time (in SystemClock.elapsedRealtime()) at which the alarm should go off
+     */
+    private synchronized void scheduleAlarm(long triggerTime) {
         Intent wakeupIntent = new Intent(context, WakelockHandler.class);
-        // Check if the alarm is still scheduled
-        if (PendingIntent.getBroadcast(context, this.hashCode(), wakeupIntent, PendingIntent.FLAG_NO_CREATE) == null) {
-            Log.w("PrivacyPolice", "Re-scheduling alarms, since our alarm manager didn't seem to be running");
-            scheduleAlarms();
+        PendingIntent pendingIntent = PendingIntent.getBroadcast(context, 0, wakeupIntent, PendingIntent.FLAG_UPDATE_CURRENT);
+        if (android.os.Build.VERSION.SDK_INT >= 23) {
+            // Make sure the alarm also goes off while the device is dozing
+            alarmManager.setAndAllowWhileIdle(AlarmManager.ELAPSED_REALTIME_WAKEUP, triggerTime, pendingIntent);
+        } else {
+            alarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, triggerTime, pendingIntent);
         }
+        nextAlarmTime = triggerTime;
+        Logger.v("Next scan in %d s", (triggerTime - SystemClock.elapsedRealtime()) / 1000);
     }
 
-    public WakelockHandler() {
-        // Only used for the BroadcastReceiver aspect of this class
-        super();
+    public synchronized void ensureAwake() {
+        Logger.v("Ensuring we're still awake");
+        long now = SystemClock.elapsedRealtime();
+        // Alarms are not kept across reboots, and might not be delivered when we get killed.
+        // Allow some slack, since alarms are inexact.
+        if (nextAlarmTime == 0 || now > nextAlarmTime + interval) {
+            Logger.w("Re-scheduling alarms, since our alarm manager didn't seem to be running");
+            scheduleAlarm(now + interval);
+        }
+    }
+
+    /**
+     * Called when new scan results were checked, to adapt the interval of our alarms
+     * @param fingerprint the fingerprint of the scan results (see ScanFingerprint)
+     */
+    public synchronized void onScanResults(long fingerprint) {
+        boolean changed = fingerprint != lastFingerprint;
+        lastFingerprint = fingerprint;
+        // Any network we are connected to was allowed by us, so there is no hurry
+        if (changed && !isWifiConnected()) {
+            // We just got fresh results, so check again one (short) interval from now
+            interval = getMinInterval();
+        } else {
+            interval = Math.min(interval * 2, getMaxInterval());
+        }
+        scheduleAlarm(SystemClock.elapsedRealtime() + interval);
+    }
+
+    /**
+     * Reset our interval and scan again as soon as we are allowed to
+     */
+    private synchronized void speedUp() {
+        interval = getMinInterval();
+        long triggerTime = Math.max(SystemClock.elapsedRealtime(), lastScanTime + interval);
+        if (nextAlarmTime != 0 && nextAlarmTime <= triggerTime)
+            return; // Our next alarm is already soon enough
+        scheduleAlarm(triggerTime);
+    }
+
+    private synchronized void onAlarm() {
+        long now = SystemClock.elapsedRealtime();
+        nextAlarmTime = 0;
+        if (lastScanTime != 0 && now - lastScanTime < getMinInterval()) {
+            // Don't waste our scan budget; wait until we're allowed to scan again
+            scheduleAlarm(lastScanTime + getMinInterval());
+            return;
+        }
+        Logger.v("Starting scan because of alarm");
+        lastScanTime = now;
+        // Make sure we wake up again, even if the scan does not produce any results
+        scheduleAlarm(now + interval);
+        ScanRequestBroker.getInstance(context).requestScan(ScanRequestBroker.Priority.PERIODIC);
+    }
+
+    private synchronized void onConnectivityChanged() {
+        boolean connected = isWifiConnected();
+        if (wifiConnected && !connected) {
+            Logger.v("Wi-Fi connection lost, scanning again soon");
+            speedUp();
+        }
+        wifiConnected = connected;
     }
 
+    private boolean isWifiConnected() {
+        Metrics.increment(Metrics.Counter.BINDER_CALLS);
+        NetworkInfo wifiState = connectivityManager.getNetworkInfo(ConnectivityManager.TYPE_WIFI);
+        return wifiState != null && wifiState.isConnected();
+    }
+
+    private static long getMinInterval() {
+        if (android.os.Build.VERSION.SDK_INT >= 28)
+            return BACKGROUND_SCAN_INTERVAL_P;
+        return MIN_INTERVAL;
+    }
+
+    private static long getMaxInterval() {
+        return Math.max(MAX_INTERVAL, 4 * getMinInterval());
+    }
+
+    /**
+     * Called for our alarm, and for the screen and connectivity broadcasts we registered for
+     */
     @Override
     public void onReceive(Context context, Intent intent) {
-        Log.v("PrivacyPolice", "Waking up because of alarm");
-        // Start a Wi-Fi scan
-        WifiManager wifiManager =  (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
-        wifiManager.startScan();
+        WakelockHandler wakelockHandler = getInstance(context);
+        if (Intent.ACTION_SCREEN_ON.equals(intent.getAction())) {
+            Logger.v("Screen turned on, scanning again soon");
+            wakelockHandler.speedUp();
+        } else if (ConnectivityManager.CONNECTIVITY_ACTION.equals(intent.getAction())) {
+            wakelockHandler.onConnectivityChanged();
+        } else {
+            Logger.v("Waking up because of alarm");
+            wakelockHandler.onAlarm();
+        }
     }
 }
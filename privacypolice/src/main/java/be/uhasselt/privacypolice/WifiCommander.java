@@ -0,0 +1,121 @@
+/*
+ * Copyright 2014, 2015 Bram Bonné
+ *
+ * This file is part of Wi-Fi PrivacyPolice.
+ *
+ * Wi-Fi PrivacyPolice is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Wi-Fi PrivacyPolice is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Wi-Fi PrivacyPolice.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package be.uhasselt.privacypolice;
+
+import android.net.wifi.WifiManager;
+import android.util.SparseBooleanArray;
+
+import be.uhasselt.privacypolice.policy.ConfiguredNetwork;
+
+/**
+ * Batches the enabling and disabling of configured networks, and only passes actual state changes
+ * on to the WifiManager. Every call to the WifiManager is a call into the system, which can make
+ * the supplicant reconsider its connection, so networks that are already in the requested state
+ * are left alone.
+ * Not thread safe: it is meant to be used from the thread that checks the scan results.
+ */
+
+public class WifiCommander {
+    private final WifiManager wifiManager;
+    private final ConfiguredNetworkCache configuredNetworkCache;
+    // Enabled (true) or disabled (false) state that we last applied to each network id
+    private SparseBooleanArray appliedStates = new SparseBooleanArray();
+    // States requested since the last call to apply()
+    private SparseBooleanArray requestedStates = new SparseBooleanArray();
+    // Networks for which the system reported a state different from the one we applied
+    private SparseBooleanArray outOfSync = new SparseBooleanArray();
+
+    public WifiCommander(WifiManager wifiManager, ConfiguredNetworkCache configuredNetworkCache) {
+        this.wifiManager = wifiManager;
+        this.configuredNetworkCache = configuredNetworkCache;
+    }
+
+    /**
+     * Request a network to be enabled on the next call to apply()
+     */
+    public void enable(ConfiguredNetwork network) {
+        request(network, true);
+    }
+
+    /**
+     * Request a network to be disabled on the next call to apply()
+     */
+    public void disable(ConfiguredNetwork network) {
+        request(network, false);
+    }
+
+    private void request(ConfiguredNetwork network, boolean enabled) {
+        requestedStates.put(network.networkId, enabled);
+        // The network's state might have been changed outside of our app (e.g. by the user)
+        if (network.enabled != enabled)
+            outOfSync.put(network.networkId, true);
+    }
+
+    /**
+     * Pass all requested state changes on to the WifiManager. Networks that were not requested
+     * since the previous call are forgotten about (they were most likely removed).
+     * @return whether any network was enabled that was not enabled before
+     */
+    public boolean apply() {
+        boolean networkEnabled = false;
+        boolean networkChanged = false;
+        // Disable networks first, so we never have more networks enabled than needed. Networks are
+        // enabled one by one (instead of using enableNetwork(id, true), which disables all others),
+        // as multiple trusted networks may be available at the same time.
+        for (int pass = 0; pass < 2; pass++) {
+            boolean enabling = pass == 1;
+            for (int i = 0; i < requestedStates.size(); i++) {
+                if (requestedStates.valueAt(i) != enabling)
+                    continue;
+                int networkId = requestedStates.keyAt(i);
+                if (isApplied(networkId, enabling))
+                    continue;
+                networkChanged = true;
+                Metrics.increment(Metrics.Counter.BINDER_CALLS);
+                if (enabling) {
+                    Logger.i("Enabling network %s", networkId);
+                    // Do not disable other networks, as multiple networks may be available
+                    wifiManager.enableNetwork(networkId, false);
+                    networkEnabled = true;
+                } else {
+                    Logger.i("Disabling network %s", networkId);
+                    wifiManager.disableNetwork(networkId);
+                }
+            }
+        }
+
+        // The requested states are now the applied ones
+        SparseBooleanArray previousStates = appliedStates;
+        appliedStates = requestedStates;
+        requestedStates = previousStates;
+        requestedStates.clear();
+        outOfSync.clear();
+        // The cached configurations no longer reflect the state of the networks we changed
+        if (networkChanged)
+            configuredNetworkCache.invalidate();
+        return networkEnabled;
+    }
+
+    private boolean isApplied(int networkId, boolean enabled) {
+        return appliedStates.indexOfKey(networkId) >= 0
+                && appliedStates.get(networkId, !enabled) == enabled
+                && !outOfSync.get(networkId, false);
+    }
+}